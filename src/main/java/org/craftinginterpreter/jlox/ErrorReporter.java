@@ -0,0 +1,14 @@
+package org.craftinginterpreter.jlox;
+
+import org.craftinginterpreter.jlox.executor.RuntimeError;
+
+// Where the errors Lox.error and Lox.runtimeError are given end up. The command line prints them and
+// remembers them for its exit code, an embedding LoxContext collects its own (see Lox.reportingTo).
+// Modules are compiled on other threads, so errors may be reported from several threads at once.
+public interface ErrorReporter {
+    // a scan, parse or resolve error, where is "", " at end" or " at 'lexeme'", after " in 'path'" for
+    // an imported module
+    void error(int line, String where, String message);
+
+    void runtimeError(RuntimeError error);
+}
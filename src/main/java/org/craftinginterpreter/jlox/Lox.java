@@ -1,9 +1,18 @@
 package org.craftinginterpreter.jlox;
 
 import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.cache.ProgramCache;
 import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.executor.HeapSnapshot;
 import org.craftinginterpreter.jlox.executor.Interpreter;
 import org.craftinginterpreter.jlox.executor.RuntimeError;
+import org.craftinginterpreter.jlox.module.LoxModule;
+import org.craftinginterpreter.jlox.module.ModuleLoader;
+import org.craftinginterpreter.jlox.optimizer.Superinstructions;
+import org.craftinginterpreter.jlox.optimizer.TypeInference;
+import org.craftinginterpreter.jlox.server.LoxClient;
+import org.craftinginterpreter.jlox.server.LoxServer;
 import org.craftinginterpreter.jlox.scanner.Scanner;
 import org.craftinginterpreter.jlox.scanner.Token;
 import org.craftinginterpreter.jlox.scanner.TokenType;
@@ -14,35 +23,160 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class Lox {
     private static boolean hadError = false;
     private static final Interpreter interpreter = new Interpreter();
     private static boolean hadRuntimeError = false;
+    private static final ModuleLoader modules = new ModuleLoader();
+
+    // the command line's: print errors and remember them for the exit code
+    private static final ErrorReporter CONSOLE = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            hadError = true;
+            System.out.println(formatError(line, where, message));
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            hadRuntimeError = true;
+            System.out.println(formatRuntimeError(error));
+        }
+    };
+
+    // who gets the errors of the thread, the threads the interpreter runs code on report to the one
+    // that handed it over (see Interpreter.onStackSegment)
+    private static final InheritableThreadLocal<ErrorReporter> reporter = new InheritableThreadLocal<ErrorReporter>() {
+        @Override
+        protected ErrorReporter initialValue() {
+            return CONSOLE;
+        }
+    };
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("usage: jlox [script]");
+        if (args.length > 0 && (args[0].equals("serve") || args[0].equals("client"))) {
+            runServer(args);
+            return ;
+        }
+        boolean stream = false;
+        boolean lazy = false;
+        String saveSnapshot = null;
+        String loadSnapshot = null;
+        boolean usage = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--") && !usage; i++) {
+            if (args[i].equals("--stream") || args[i].equals("--lazy")) {
+                stream |= args[i].equals("--stream");
+                lazy |= args[i].equals("--lazy");
+            } else if (args[i].equals("--save-snapshot") && i + 1 < args.length) {
+                saveSnapshot = args[++i];
+            } else if (args[i].equals("--load-snapshot") && i + 1 < args.length) {
+                loadSnapshot = args[++i];
+            } else {
+                usage = true;
+            }
+        }
+        int rest = args.length - i;
+        if (usage || rest > 1 || (stream && lazy) || ((stream || lazy) && rest == 0)) {
+            System.out.println("usage: jlox [--stream | --lazy] [--load-snapshot file] [--save-snapshot file]"
+                    + " [script] | serve | client script");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        }
+        if (loadSnapshot != null) {
+            loadSnapshot(Paths.get(loadSnapshot));
+        }
+        if (rest == 1) {
+            runFile(args[args.length - 1], stream, lazy, saveSnapshot);
         } else {
             runPrompt();
+            if (saveSnapshot != null) {
+                saveSnapshot(Paths.get(saveSnapshot));
+            }
+        }
+    }
+
+    // --load-snapshot file starts from the globals a run with --save-snapshot file ended with (see
+    // HeapSnapshot), instead of running the code that defined them again
+    private static void loadSnapshot(Path path) {
+        try {
+            HeapSnapshot.load(interpreter, path);
+        } catch (IOException e) {
+            System.out.println("Can't load snapshot " + path + ": " + e.getMessage());
+            System.exit(66);
+        }
+    }
+
+    private static void saveSnapshot(Path path) {
+        try {
+            HeapSnapshot.save(interpreter, path);
+        } catch (IOException e) {
+            System.out.println("Can't save snapshot " + path + ": " + e.getMessage());
+            System.exit(74);
+        }
+    }
+
+    // jlox serve keeps a warmed up JVM running scripts, jlox client script runs one there (see LoxServer).
+    // Both on -Djlox.port, serve warms up for -Djlox.warmup milliseconds first.
+    private static void runServer(String[] args) throws IOException {
+        int port = Integer.getInteger("jlox.port", LoxServer.DEFAULT_PORT);
+        if (args[0].equals("serve") && args.length == 1) {
+            LoxServer server = new LoxServer(Runtime.getRuntime().availableProcessors());
+            server.warmUp(Long.getLong("jlox.warmup", 2000));
+            System.out.println("jlox serving on port " + server.bind(port));
+            server.serve();
+        } else if (args[0].equals("client") && args.length == 2) {
+            System.exit(LoxClient.run(args[1], port, System.out));
+        } else {
+            System.out.println("usage: jlox serve | client script");
+            System.exit(64);
         }
     }
 
     //run the input file
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-         run(new String(bytes, Charset.defaultCharset()));
+    private static void runFile(String path, boolean stream, boolean lazy, String saveSnapshot) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath();
+        byte[] bytes = Files.readAllBytes(file);
+         if (stream) {
+             // the text is read whole, only its tokens and statements are dropped as they are done
+             runStreaming(new String(bytes, Charset.defaultCharset()), file.getParent());
+         } else if (lazy) {
+             // not cached, the cache only holds fully parsed programs
+             CompiledProgram program = CompiledProgram.compile(new String(bytes, Charset.defaultCharset()), true);
+             if (program != null) {
+                 execute(program, file.getParent());
+             }
+         } else {
+             CompiledProgram program = ProgramCache.compile(file, bytes);
+             if (program != null) {
+                 execute(program, file.getParent());
+             }
+         }
+         if (Boolean.getBoolean("jlox.stats")) {
+             printFusedCounts();
+         }
          if (hadError) {
              System.exit(65);
          }
          if (hadRuntimeError) {
              System.exit(70);
          }
+         if (saveSnapshot != null) {
+             saveSnapshot(Paths.get(saveSnapshot));
+         }
+    }
+
+    // -Djlox.stats=true: how often each superinstruction ran, on stderr so it stays out of the output
+    private static void printFusedCounts() {
+        long[] counts = interpreter.getFusedCounts();
+        for (int i = 0; i < counts.length; i++) {
+            System.err.println(Superinstructions.NAMES[i] + ": " + counts[i]);
+        }
     }
 
     //run with command line
@@ -58,42 +192,104 @@ public class Lox {
             if (line == null) {
                 break;
             }
-            run(line);
+            run(line, Paths.get("").toAbsolutePath());
         }
     }
 
-    private static void run(String sourceCode) {
-        //scan the sourceCode and obtain a list of tokens
-        Scanner scanner = new Scanner(sourceCode);
-        List<Token> tokenList = scanner.scanTokens();
+    private static void run(String sourceCode, Path baseDir) {
+        CompiledProgram program = CompiledProgram.compile(sourceCode);
+        if (program != null) {
+            execute(program, baseDir);
+        }
+    }
 
-        Parser parser = new Parser(tokenList);
-        List<Stmt> statements = parser.parse();
+    private static void execute(CompiledProgram program, Path baseDir) {
+        List<LoxModule> dependencies = modules.load(baseDir, program.getStatements());
         if (hadError) {
             return;
         }
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if (hadError) {
-            return;
+        if (runModules(dependencies)) {
+            interpreter.interpret(program.getStatements());
+        }
+    }
+
+    // run imported modules in dependency order, false if one of them failed
+    private static boolean runModules(List<LoxModule> dependencies) {
+        for (LoxModule module : dependencies) {
+            interpreter.interpret(module.getStatements());
+            if (hadRuntimeError) {
+                return false;
+            }
+            modules.ran(module);
         }
+        return true;
+    }
+
+    // scan, parse, resolve and execute one top-level declaration at a time, so output starts right away
+    // and tokens/statements of finished declarations can be collected. Unlike run(), a syntax error only
+    // stops the declarations after it.
+    private static void runStreaming(String sourceCode, Path baseDir) {
+        Parser parser = new Parser(new Scanner(sourceCode));
+        Resolver resolver = new Resolver();
 
-        interpreter.interpret(statements);
+        while (parser.hasNext()) {
+            Stmt stmt = parser.next();
+            if (hadError) {
+                return;
+            }
+
+            List<LoxModule> dependencies = modules.load(baseDir, Collections.singletonList(stmt));
+            resolver.resolve(Collections.singletonList(stmt));
+            if (hadError) {
+                return;
+            }
+            TypeInference.infer(Collections.singletonList(stmt));
+            List<Stmt> statements = Collections.singletonList(Superinstructions.fuse(stmt));
 
+            if (!runModules(dependencies)) {
+                return;
+            }
+            interpreter.interpret(statements);
+            if (hadRuntimeError) {
+                return;
+            }
+        }
     }
 
     //error handling
+    public static ErrorReporter reporter() {
+        return reporter.get();
+    }
+
+    // runs work with the errors reported on this thread going to errors instead
+    public static <T> T reportingTo(ErrorReporter errors, Supplier<T> work) {
+        ErrorReporter previous = reporter.get();
+        reporter.set(errors);
+        try {
+            return work.get();
+        } finally {
+            reporter.set(previous);
+        }
+    }
+
+    public static String formatError(int line, String where, String message) {
+        return "[line " + line + "] Error" + where + ": " + message;
+    }
+
+    public static String formatRuntimeError(RuntimeError runtimeError) {
+        return runtimeError.getMessage() + " at [line " + runtimeError.getLine() + "]";
+    }
+
     public static void error(int line, String message) {
         report(line, "", message);
     }
 
     public static void runtimeError(RuntimeError runtimeError) {
-        System.out.println(runtimeError.getMessage() + " at [line " + runtimeError.getToken().getLine() + "]");
+        reporter.get().runtimeError(runtimeError);
     }
 
     public static void error(Token token, String message) {
-        hadError = true;
         if (token.getTokenType() == TokenType.EOF) {
             report(token.getLine(), " at end", message);
         } else {
@@ -101,7 +297,12 @@ public class Lox {
         }
     }
 
+    // for errors found after parsing, when only the name and line of a node are left
+    public static void error(int line, String lexeme, String message) {
+        report(line, " at '" + lexeme + "'", message);
+    }
+
     private static void report(int line, String where, String message) {
-        System.out.println("[line " + line + "] Error" + where + ": " + message);
+        reporter.get().error(line, where, message);
     }
 }
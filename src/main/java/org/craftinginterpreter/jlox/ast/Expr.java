@@ -1,8 +1,6 @@
 package org.craftinginterpreter.jlox.ast;
 
-import java.util.List;
-
-import org.craftinginterpreter.jlox.scanner.Token;
+import org.craftinginterpreter.jlox.scanner.TokenType;
 
 public abstract class Expr {
   public interface Visitor<R> {
@@ -18,10 +16,49 @@ public abstract class Expr {
     public R visitLogicalExpr(Logical expr);
     public R visitUnaryExpr(Unary expr);
     public R visitVarExpr(Var expr);
+
+    default R dispatch(Expr expr) {
+      switch (expr.kind) {
+        case ASSIGN: return visitAssignExpr((Assign) expr);
+        case BINARY: return visitBinaryExpr((Binary) expr);
+        case CALL: return visitCallExpr((Call) expr);
+        case GET: return visitGetExpr((Get) expr);
+        case SET: return visitSetExpr((Set) expr);
+        case SUPER: return visitSuperExpr((Super) expr);
+        case THIS: return visitThisExpr((This) expr);
+        case GROUPING: return visitGroupingExpr((Grouping) expr);
+        case LITERAL: return visitLiteralExpr((Literal) expr);
+        case LOGICAL: return visitLogicalExpr((Logical) expr);
+        case UNARY: return visitUnaryExpr((Unary) expr);
+        case VAR: return visitVarExpr((Var) expr);
+      }
+      throw new IllegalStateException("Unknown kind " + expr.kind);
+    }
+  }
+  public static final int ASSIGN = 0;
+  public static final int BINARY = 1;
+  public static final int CALL = 2;
+  public static final int GET = 3;
+  public static final int SET = 4;
+  public static final int SUPER = 5;
+  public static final int THIS = 6;
+  public static final int GROUPING = 7;
+  public static final int LITERAL = 8;
+  public static final int LOGICAL = 9;
+  public static final int UNARY = 10;
+  public static final int VAR = 11;
+
+  public final int kind;
+
+  protected Expr(int kind) {
+    this.kind = kind;
   }
+
   public static class Assign extends Expr {
-    public Assign(Token name, Expr value) {
+    public Assign(String name, int line, Expr value) {
+      super(ASSIGN);
       this.name = name;
+      this.line = line;
       this.value = value;
     }
 
@@ -29,13 +66,19 @@ public abstract class Expr {
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitAssignExpr(this);
     }
-    public final Token name;
+    public final String name;
+    public int line;
     public final Expr value;
+
+    public int storage;
+    public int slot;
   }
   public static class Binary extends Expr {
-    public Binary(Expr left, Token operator, Expr right) {
+    public Binary(Expr left, TokenType operator, int line, Expr right) {
+      super(BINARY);
       this.left = left;
       this.operator = operator;
+      this.line = line;
       this.right = right;
     }
 
@@ -44,13 +87,17 @@ public abstract class Expr {
         return visitor.visitBinaryExpr(this);
     }
     public final Expr left;
-    public final Token operator;
+    public final TokenType operator;
+    public int line;
     public final Expr right;
+
+    public boolean numeric;
   }
   public static class Call extends Expr {
-    public Call(Expr callee, Token paren, List<Expr> arguments) {
+    public Call(Expr callee, int line, Expr[] arguments) {
+      super(CALL);
       this.callee = callee;
-      this.paren = paren;
+      this.line = line;
       this.arguments = arguments;
     }
 
@@ -59,13 +106,15 @@ public abstract class Expr {
         return visitor.visitCallExpr(this);
     }
     public final Expr callee;
-    public final Token paren;
-    public final List<Expr> arguments;
+    public int line;
+    public final Expr[] arguments;
   }
   public static class Get extends Expr {
-    public Get(Expr object, Token name) {
+    public Get(Expr object, String name, int line) {
+      super(GET);
       this.object = object;
       this.name = name;
+      this.line = line;
     }
 
     @Override
@@ -73,12 +122,17 @@ public abstract class Expr {
         return visitor.visitGetExpr(this);
     }
     public final Expr object;
-    public final Token name;
+    public final String name;
+    public int line;
+
+    public int fieldSlot;
   }
   public static class Set extends Expr {
-    public Set(Expr object, Token name, Expr value) {
+    public Set(Expr object, String name, int line, Expr value) {
+      super(SET);
       this.object = object;
       this.name = name;
+      this.line = line;
       this.value = value;
     }
 
@@ -87,35 +141,50 @@ public abstract class Expr {
         return visitor.visitSetExpr(this);
     }
     public final Expr object;
-    public final Token name;
+    public final String name;
+    public int line;
     public final Expr value;
+
+    public int fieldSlot;
   }
   public static class Super extends Expr {
-    public Super(Token keyword, Token method) {
-      this.keyword = keyword;
+    public Super(String method, int line) {
+      super(SUPER);
       this.method = method;
+      this.line = line;
     }
 
     @Override
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitSuperExpr(this);
     }
-    public final Token keyword;
-    public final Token method;
+    public final String method;
+    public int line;
+
+    public int storage;
+    public int slot;
+    public int thisStorage;
+    public int thisSlot;
+    public int index;
   }
   public static class This extends Expr {
-    public This(Token keyword) {
-      this.keyword = keyword;
+    public This(int line) {
+      super(THIS);
+      this.line = line;
     }
 
     @Override
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitThisExpr(this);
     }
-    public final Token keyword;
+    public int line;
+
+    public int storage;
+    public int slot;
   }
   public static class Grouping extends Expr {
     public Grouping(Expr expression) {
+      super(GROUPING);
       this.expression = expression;
     }
 
@@ -127,6 +196,7 @@ public abstract class Expr {
   }
   public static class Literal extends Expr {
     public Literal(Object value) {
+      super(LITERAL);
       this.value = value;
     }
 
@@ -137,7 +207,8 @@ public abstract class Expr {
     public final Object value;
   }
   public static class Logical extends Expr {
-    public Logical(Expr left, Token operator, Expr right) {
+    public Logical(Expr left, TokenType operator, Expr right) {
+      super(LOGICAL);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -148,12 +219,14 @@ public abstract class Expr {
         return visitor.visitLogicalExpr(this);
     }
     public final Expr left;
-    public final Token operator;
+    public final TokenType operator;
     public final Expr right;
   }
   public static class Unary extends Expr {
-    public Unary(Token operator, Expr right) {
+    public Unary(TokenType operator, int line, Expr right) {
+      super(UNARY);
       this.operator = operator;
+      this.line = line;
       this.right = right;
     }
 
@@ -161,19 +234,29 @@ public abstract class Expr {
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitUnaryExpr(this);
     }
-    public final Token operator;
+    public final TokenType operator;
+    public int line;
     public final Expr right;
+
+    public boolean numeric;
   }
   public static class Var extends Expr {
-    public Var(Token name) {
+    public Var(String name, int line) {
+      super(VAR);
       this.name = name;
+      this.line = line;
     }
 
     @Override
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitVarExpr(this);
     }
-    public final Token name;
+    public final String name;
+    public int line;
+
+    public int storage;
+    public int slot;
+    public Object constant;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,65 @@
+package org.craftinginterpreter.jlox.ast;
+
+import org.craftinginterpreter.jlox.scanner.TokenBuffer;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+
+import java.util.Collections;
+import java.util.Map;
+
+// The tokens of a function body the Parser only brace-matched (see Parser lazy mode). The function node
+// gets an empty body; the body is parsed and resolved the first time the function is called and the
+// complete node is kept here.
+public class LazyBody {
+    private final TokenBuffer tokens;
+    private final int start; // first token after '{'
+    private final boolean method;
+    private final boolean subclass; // a method of a class with a superclass
+
+    private volatile Stmt.Function compiled = null;
+    private Map<String, Expr.Literal> constants = Collections.emptyMap(); // top-level consts before it
+    private GlobalSlots globalSlots = GlobalSlots.DEFAULT; // of the program it is in
+
+    LazyBody(TokenBuffer tokens, int start, boolean method, boolean subclass) {
+        this.tokens = tokens;
+        this.start = start;
+        this.method = method;
+        this.subclass = subclass;
+    }
+
+    // the statements of the body, null if it has syntax errors (they are reported through Lox.error)
+    public Stmt[] parse() {
+        return new Parser(tokens, start).body();
+    }
+
+    public boolean isMethod() {
+        return method;
+    }
+
+    public boolean isSubclassMethod() {
+        return subclass;
+    }
+
+    public Stmt.Function getCompiled() {
+        return compiled;
+    }
+
+    public void setCompiled(Stmt.Function compiled) {
+        this.compiled = compiled;
+    }
+
+    public Map<String, Expr.Literal> getConstants() {
+        return constants;
+    }
+
+    public void setConstants(Map<String, Expr.Literal> constants) {
+        this.constants = constants;
+    }
+
+    public GlobalSlots getGlobalSlots() {
+        return globalSlots;
+    }
+
+    public void setGlobalSlots(GlobalSlots globalSlots) {
+        this.globalSlots = globalSlots;
+    }
+}
@@ -3,21 +3,52 @@ package org.craftinginterpreter.jlox.ast;
 import org.craftinginterpreter.jlox.Lox;
 import org.craftinginterpreter.jlox.ast.Expr;
 import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.scanner.Scanner;
 import org.craftinginterpreter.jlox.scanner.Token;
+import org.craftinginterpreter.jlox.scanner.TokenBuffer;
 import org.craftinginterpreter.jlox.scanner.TokenType;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class Parser {
 
     private static class ParseError extends RuntimeException { }
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
+    private final Scanner scanner; // only set when streaming
+    private final boolean lazy;
+    private boolean recover = true; // synchronize after a syntax error to report the ones after it
     private int curr = 0;
+    private int nesting = 0; // blocks and function bodies around the cursor
+    private int errors = 0; // syntax errors reported, recovered from or not
 
-    public Parser(List<Token> tokens) {
+    public Parser(TokenBuffer tokens) {
+        this(tokens, false);
+    }
+
+    // lazy: the bodies of top-level functions and methods, other than initializers, are only
+    // brace-matched and parsed on their first call (see LazyBody)
+    public Parser(TokenBuffer tokens, boolean lazy) {
         this.tokens = tokens;
+        this.scanner = null;
+        this.lazy = lazy;
+    }
+
+    // parses a body LazyBody skipped, from the token after its '{'
+    Parser(TokenBuffer tokens, int start) {
+        this(tokens, false);
+        this.curr = start;
+        this.nesting = 1;
+        // past the first error the parser could run over the end of the body
+        this.recover = false;
+    }
+
+    // streaming parser: tokens are scanned lazily, one declaration at a time via hasNext()/next()
+    public Parser(Scanner scanner) {
+        this.tokens = scanner.tokenBuffer();
+        this.scanner = scanner;
+        this.lazy = false;
+        fill();
     }
 
     // program → declarations* EOF
@@ -33,9 +64,45 @@ public class Parser {
         }
     }
 
-    // declarations → varDeclaration | statement | functionDeclaration
+    // the rest of a block whose '{' is already consumed, null if it has syntax errors
+    Stmt[] body() {
+        try {
+            return block();
+        } catch (ParseError parseError) {
+            return null;
+        }
+    }
+
+    public boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    // index of the next unparsed token in the token buffer
+    public int position() {
+        return curr;
+    }
+
+    // parse the next top-level declaration, null if it had a syntax error, nested ones included
+    public Stmt next() {
+        int before = errors;
+        Stmt stmt = declaration();
+        // everything but the lookbehind token is consumed, let the buffer forget it
+        tokens.discardBefore(curr - 1);
+        return errors == before ? stmt : null;
+    }
+
+    // whether any syntax error was reported. After recovering from one in a block or function body the
+    // statement is left out of it, so the statements parse() returns can't be run.
+    public boolean hadError() {
+        return errors > 0;
+    }
+
+    // declarations → varDeclaration | constDeclaration | statement | functionDeclaration | importDeclaration
     private Stmt declaration() {
         try {
+            if (match(TokenType.IMPORT)) {
+                return importDeclaration();
+            }
             if (match(TokenType.CLASS)) {
                 return classDeclaration();
             }
@@ -45,62 +112,114 @@ public class Parser {
             if (match(TokenType.VAR)) {
                 return varDeclaration();
             }
+            if (match(TokenType.CONST)) {
+                return constDeclaration();
+            }
             return statement();
         } catch (ParseError error) {
+            if (!recover) {
+                throw error;
+            }
             synchronize();
         }
         return null;
     }
 
+    // importDeclaration → IMPORT STRING ;
+    private Stmt importDeclaration() {
+        int keyword = curr - 1;
+        int path = consume(TokenType.STRING, "Expect module path after 'import'.");
+        consume(TokenType.SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import((String) tokens.literal(path), tokens.line(keyword));
+    }
+
     private Stmt classDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
+        int name = consume(TokenType.IDENTIFIER, "Expect class name.");
 
         Expr.Var superclass = null;
         if (match(TokenType.LESS)) {
-            consume(TokenType.IDENTIFIER, "Expect superclass name");
-            superclass = new Expr.Var(previous());
+            int superName = consume(TokenType.IDENTIFIER, "Expect superclass name");
+            superclass = new Expr.Var(symbol(superName), tokens.line(superName));
         }
 
         consume(TokenType.LEFT_BRACE, "Expect '{' brefore after class name.");
 
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-            methods.add(functionDeclaration("function"));
+            methods.add(functionDeclaration("function", true, superclass != null));
         }
         consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
 
-        return new Stmt.Class(name, superclass, methods);
+        return new Stmt.Class(symbol(name), tokens.line(name), superclass,
+                methods.toArray(new Stmt.Function[0]));
     }
 
     private Stmt.Function functionDeclaration(String kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        return functionDeclaration(kind, false, false);
+    }
+
+    private Stmt.Function functionDeclaration(String kind, boolean method, boolean subclass) {
+        int name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
         consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
-        List<Token> parameters = new ArrayList<>();
+        List<String> parameters = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
             do {
                 if (parameters.size() >= 255) {
-                    error(peek(), "Can't have more than 255 parameters.");
+                    error(curr, "Can't have more than 255 parameters.");
                 }
-                parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
+                parameters.add(symbol(consume(TokenType.IDENTIFIER, "Expect parameter name.")));
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
 
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        // initializers stay eager, classes lay out their fields from them
+        if (lazy && nesting == 0 && !(method && tokens.lexeme(name).equals("init"))) {
+            LazyBody body = new LazyBody(tokens, curr, method, subclass);
+            skipBlock();
+            Stmt.Function function = new Stmt.Function(symbol(name), tokens.line(name),
+                    parameters.toArray(new String[0]), new Stmt[0]);
+            function.lazy = body;
+            return function;
+        }
+        Stmt[] body = block();
+        return new Stmt.Function(symbol(name), tokens.line(name), parameters.toArray(new String[0]), body);
+    }
+
+    // moves past the '}' matching an already consumed '{'
+    private void skipBlock() {
+        int depth = 1;
+        while (!isAtEnd()) {
+            if (tokens.type(curr) == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (tokens.type(curr) == TokenType.RIGHT_BRACE && --depth == 0) {
+                advance();
+                return ;
+            }
+            advance();
+        }
+        throw error(curr, "Expect '}' after block");
     }
 
     // varDeclaration -> VAR name (= ininitializer)?;
     private Stmt varDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name");
+        int name = consume(TokenType.IDENTIFIER, "Expect variable name");
 
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
             initializer = expression();
         }
         consume(TokenType.SEMICOLON, "Expect ';' after variable declaration");
-        return new Stmt.Var(name, initializer);
+        return new Stmt.Var(symbol(name), tokens.line(name), initializer, false);
+    }
+
+    // constDeclaration -> CONST name = initializer;
+    private Stmt constDeclaration() {
+        int name = consume(TokenType.IDENTIFIER, "Expect constant name");
+        consume(TokenType.EQUAL, "Expect '=' after constant name");
+        Expr initializer = expression();
+        consume(TokenType.SEMICOLON, "Expect ';' after constant declaration");
+        return new Stmt.Var(symbol(name), tokens.line(name), initializer, true);
     }
 
     // statement -> PRINT printStmt | { block } | expressionStmt | ifStmt | whileStmt | forStmt
@@ -127,14 +246,14 @@ public class Parser {
     }
 
     private Stmt returnStmt() {
-        Token keyword = previous();
+        int keyword = curr - 1;
 
         Expr value = null;
         if (!check(TokenType.SEMICOLON)) {
             value = expression();
         }
         consume(TokenType.SEMICOLON, "Expect ';' after return value.");
-        return new Stmt.Return(keyword, value);
+        return new Stmt.Return(tokens.line(keyword), value);
     }
 
     // desugar the for loop to while...
@@ -167,7 +286,7 @@ public class Parser {
         Stmt body = statement();
 
         if (incremental != null) {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(incremental)));
+            body = new Stmt.Block(new Stmt[] {body, new Stmt.Expression(incremental)});
         }
 
         if (condition ==  null) {
@@ -176,7 +295,7 @@ public class Parser {
         body = new Stmt.While(condition, body);
 
         if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
+            body = new Stmt.Block(new Stmt[] {initializer, body});
         }
 
         return body;
@@ -207,14 +326,19 @@ public class Parser {
     }
 
     // block -> declarations*
-    private List<Stmt> block() {
+    private Stmt[] block() {
         List<Stmt> stmts = new ArrayList<>();
-        while (!isAtEnd() && !check(TokenType.RIGHT_BRACE)) {
-            stmts.add(declaration());
+        nesting++;
+        try {
+            while (!isAtEnd() && !check(TokenType.RIGHT_BRACE)) {
+                stmts.add(declaration());
+            }
+        } finally {
+            nesting--;
         }
 
         consume(TokenType.RIGHT_BRACE, "Expect '}' after block");
-        return stmts;
+        return stmts.toArray(new Stmt[0]);
     }
 
     // printStmt -> expression;
@@ -242,14 +366,14 @@ public class Parser {
         Expr expr = or();
 
         if (match(TokenType.EQUAL)) {
-            Token equals = previous();
+            int equals = curr - 1;
             Expr value = assignment();
             if (expr instanceof Expr.Var) {
-                Token name = ((Expr.Var)expr).name;
-                return new Expr.Assign(name, value);
+                Expr.Var var = (Expr.Var)expr;
+                return new Expr.Assign(var.name, var.line, value);
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
+                return new Expr.Set(get.object, get.name, get.line, value);
             }
             error(equals, "Invalid assignment target");
         }
@@ -260,7 +384,7 @@ public class Parser {
         Expr expr = and();
 
         while (match(TokenType.OR)) {
-            Token operator = previous();
+            TokenType operator = tokens.type(curr - 1);
             Expr right = and();
             expr = new Expr.Logical(expr, operator, right);
         }
@@ -271,7 +395,7 @@ public class Parser {
         Expr expr = equality();
 
         while (match(TokenType.AND)) {
-            Token operator = previous();
+            TokenType operator = tokens.type(curr - 1);
             Expr right = equality();
             expr = new Expr.Logical(expr, operator, right);
         }
@@ -283,9 +407,9 @@ public class Parser {
         Expr expr = comparison();
 
         while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
+            int operator = curr - 1;
             Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = new Expr.Binary(expr, tokens.type(operator), tokens.line(operator), right);
         }
         return expr;
     }
@@ -295,9 +419,9 @@ public class Parser {
         Expr expr = term();
 
         while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-            Token operator = previous();
+            int operator = curr - 1;
             Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = new Expr.Binary(expr, tokens.type(operator), tokens.line(operator), right);
         }
         return expr;
     }
@@ -307,9 +431,9 @@ public class Parser {
         Expr expr = factor();
 
         while (match(TokenType.MINUS, TokenType.PLUS)) {
-            Token operator = previous();
+            int operator = curr - 1;
             Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = new Expr.Binary(expr, tokens.type(operator), tokens.line(operator), right);
         }
         return expr;
     }
@@ -319,9 +443,9 @@ public class Parser {
         Expr expr = unary();
 
         while (match(TokenType.SLASH, TokenType.STAR)) {
-            Token operator = previous();
+            int operator = curr - 1;
             Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = new Expr.Binary(expr, tokens.type(operator), tokens.line(operator), right);
         }
         return expr;
 
@@ -330,9 +454,9 @@ public class Parser {
     // unary → ( "!" | "-" ) unary | primary
     private Expr unary() {
         if (match(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
+            int operator = curr - 1;
             Expr right = unary();
-            return new Expr.Unary(operator, right);
+            return new Expr.Unary(tokens.type(operator), tokens.line(operator), right);
         }
 
         return call();
@@ -345,8 +469,8 @@ public class Parser {
             if (match(TokenType.LEFT_PAREN)) {
                 expr = finishCall(expr);
             } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expected property name after '.'");
-                expr = new Expr.Get(expr, name);
+                int name = consume(TokenType.IDENTIFIER, "Expected property name after '.'");
+                expr = new Expr.Get(expr, symbol(name), tokens.line(name));
             } else {
                 break;
             }
@@ -359,15 +483,15 @@ public class Parser {
         if (!check(TokenType.RIGHT_PAREN)) {
             do {
                 if (arguments.size() >= 255) {
-                    error(peek(), "Can't have more than 255 arguments.");
+                    error(curr, "Can't have more than 255 arguments.");
                 }
                 arguments.add(expression());
             } while(match(TokenType.COMMA));
         }
 
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments");
+        int paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments");
 
-        return new Expr.Call(callee, paren, arguments);
+        return new Expr.Call(callee, tokens.line(paren), arguments.toArray(new Expr[0]));
     }
 
     //primary → NUMBER | STRING | "true" | "false" | "nil"
@@ -384,22 +508,21 @@ public class Parser {
         }
 
         if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().getLiteral());
+            return new Expr.Literal(tokens.literal(curr - 1));
         }
 
         if (match(TokenType.IDENTIFIER)) {
-            return new Expr.Var(previous());
+            return new Expr.Var(symbol(curr - 1), tokens.line(curr - 1));
         }
 
         if (match(TokenType.THIS)) {
-            return new Expr.This(previous());
+            return new Expr.This(tokens.line(curr - 1));
         }
 
         if (match(TokenType.SUPER)) {
-            Token keyword = previous();
             consume(TokenType.DOT, "Expect '.' after 'super'");
-            Token method = consume(TokenType.IDENTIFIER, "Expect super class method name.");
-            return new Expr.Super(keyword, method);
+            int method = consume(TokenType.IDENTIFIER, "Expect super class method name.");
+            return new Expr.Super(symbol(method), tokens.line(method));
         }
 
         if (match(TokenType.LEFT_PAREN)) {
@@ -408,13 +531,22 @@ public class Parser {
             return new Expr.Grouping(expr);
         }
 
-        throw error(peek(), "Except expression.");
+        throw error(curr, "Except expression.");
     }
 
-    private Token consume(TokenType tokenType, String message) {
-        if (check(tokenType)) return advance();
+    // index of the consumed token
+    private int consume(TokenType tokenType, String message) {
+        if (check(tokenType)) {
+            advance();
+            return curr - 1;
+        }
         // enter panic mode, reset the state
-        throw error(peek(), message);
+        throw error(curr, message);
+    }
+
+    // names are interned so every occurrence of an identifier shares one String
+    private String symbol(int index) {
+        return tokens.lexeme(index).intern();
     }
 
     private void synchronize() {
@@ -422,14 +554,16 @@ public class Parser {
 
         while (!isAtEnd()) {
             // discards tokens until it thinks it found a statement boundary.
-            if (previous().getTokenType() == TokenType.SEMICOLON) {
+            if (tokens.type(curr - 1) == TokenType.SEMICOLON) {
                 return ;
             }
 
-            switch (peek().getTokenType()) {
+            switch (tokens.type(curr)) {
                 case CLASS:
+                case IMPORT:
                 case FUN:
                 case VAR:
+                case CONST:
                 case FOR:
                 case IF:
                 case WHILE:
@@ -442,8 +576,9 @@ public class Parser {
         }
     }
 
-    private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+    private ParseError error(int index, String message) {
+        errors++;
+        Lox.error(tokens.token(index), message);
         return new ParseError();
     }
 
@@ -461,25 +596,27 @@ public class Parser {
         if (isAtEnd()) {
             return false;
         }
-        return peek().getTokenType() == tokenType;
+        return tokens.type(curr) == tokenType;
     }
 
-    private Token advance() {
+    // moves the cursor only, Tokens are only materialized to report errors
+    private void advance() {
         if (!isAtEnd()) {
             curr++;
+            fill();
         }
-        return previous();
     }
 
-    private boolean isAtEnd() {
-        return peek().getTokenType() == TokenType.EOF;
-    }
-
-    private Token peek() {
-        return tokens.get(curr);
+    // make sure the token under the cursor has been scanned
+    private void fill() {
+        if (scanner == null) {
+            return ;
+        }
+        while (curr >= tokens.size() && scanner.scanNext()) {
+        }
     }
 
-    private Token previous() {
-        return tokens.get(curr - 1);
+    private boolean isAtEnd() {
+        return tokens.type(curr) == TokenType.EOF;
     }
 }
@@ -1,9 +1,5 @@
 package org.craftinginterpreter.jlox.ast;
 
-import java.util.List;
-
-import org.craftinginterpreter.jlox.scanner.Token;
-
 public abstract class Stmt {
   public interface Visitor<R> {
     public R visitBlockStmt(Block stmt);
@@ -11,13 +7,63 @@ public abstract class Stmt {
     public R visitExpressionStmt(Expression stmt);
     public R visitFunctionStmt(Function stmt);
     public R visitIfStmt(If stmt);
+    public R visitImportStmt(Import stmt);
     public R visitReturnStmt(Return stmt);
     public R visitPrintStmt(Print stmt);
     public R visitVarStmt(Var stmt);
     public R visitWhileStmt(While stmt);
+    public R visitIncrementStmt(Increment stmt);
+    public R visitAddAssignStmt(AddAssign stmt);
+    public R visitCompareIfStmt(CompareIf stmt);
+    public R visitReturnCallStmt(ReturnCall stmt);
+    public R visitScalarStmt(Scalar stmt);
+
+    default R dispatch(Stmt stmt) {
+      switch (stmt.kind) {
+        case BLOCK: return visitBlockStmt((Block) stmt);
+        case CLASS: return visitClassStmt((Class) stmt);
+        case EXPRESSION: return visitExpressionStmt((Expression) stmt);
+        case FUNCTION: return visitFunctionStmt((Function) stmt);
+        case IF: return visitIfStmt((If) stmt);
+        case IMPORT: return visitImportStmt((Import) stmt);
+        case RETURN: return visitReturnStmt((Return) stmt);
+        case PRINT: return visitPrintStmt((Print) stmt);
+        case VAR: return visitVarStmt((Var) stmt);
+        case WHILE: return visitWhileStmt((While) stmt);
+        case INCREMENT: return visitIncrementStmt((Increment) stmt);
+        case ADDASSIGN: return visitAddAssignStmt((AddAssign) stmt);
+        case COMPAREIF: return visitCompareIfStmt((CompareIf) stmt);
+        case RETURNCALL: return visitReturnCallStmt((ReturnCall) stmt);
+        case SCALAR: return visitScalarStmt((Scalar) stmt);
+      }
+      throw new IllegalStateException("Unknown kind " + stmt.kind);
+    }
+  }
+  public static final int BLOCK = 0;
+  public static final int CLASS = 1;
+  public static final int EXPRESSION = 2;
+  public static final int FUNCTION = 3;
+  public static final int IF = 4;
+  public static final int IMPORT = 5;
+  public static final int RETURN = 6;
+  public static final int PRINT = 7;
+  public static final int VAR = 8;
+  public static final int WHILE = 9;
+  public static final int INCREMENT = 10;
+  public static final int ADDASSIGN = 11;
+  public static final int COMPAREIF = 12;
+  public static final int RETURNCALL = 13;
+  public static final int SCALAR = 14;
+
+  public final int kind;
+
+  protected Stmt(int kind) {
+    this.kind = kind;
   }
+
   public static class Block extends Stmt {
-    public Block(List<Stmt> statements) {
+    public Block(Stmt[] statements) {
+      super(BLOCK);
       this.statements = statements;
     }
 
@@ -25,25 +71,34 @@ public abstract class Stmt {
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitBlockStmt(this);
     }
-    public final List<Stmt> statements;
+    public final Stmt[] statements;
+
+    public int frameSize;
   }
   public static class Class extends Stmt {
-    public Class(Token name, Expr.Var superclass, List<Stmt.Function> method) {
+    public Class(String name, int line, Expr.Var superclass, Stmt.Function[] methods) {
+      super(CLASS);
       this.name = name;
+      this.line = line;
       this.superclass = superclass;
-      this.method = method;
+      this.methods = methods;
     }
 
     @Override
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitClassStmt(this);
     }
-    public final Token name;
+    public final String name;
+    public int line;
     public final Expr.Var superclass;
-    public final List<Stmt.Function> method;
+    public final Stmt.Function[] methods;
+
+    public int storage;
+    public int slot;
   }
   public static class Expression extends Stmt {
     public Expression(Expr expression) {
+      super(EXPRESSION);
       this.expression = expression;
     }
 
@@ -54,8 +109,10 @@ public abstract class Stmt {
     public final Expr expression;
   }
   public static class Function extends Stmt {
-    public Function(Token name, List<Token> params, List<Stmt> body) {
+    public Function(String name, int line, String[] params, Stmt[] body) {
+      super(FUNCTION);
       this.name = name;
+      this.line = line;
       this.params = params;
       this.body = body;
     }
@@ -64,12 +121,30 @@ public abstract class Stmt {
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitFunctionStmt(this);
     }
-    public final Token name;
-    public final List<Token> params;
-    public final List<Stmt> body;
+    public final String name;
+    public int line;
+    public final String[] params;
+    public final Stmt[] body;
+
+    public int storage;
+    public int slot;
+    public int frameSize;
+    public int scalarSlots;
+    public int[] paramStorages;
+    public int[] paramSlots;
+    public int thisStorage;
+    public int thisSlot;
+    public int superStorage;
+    public int superSlot;
+    public boolean[] capturesLocal;
+    public int[] captureSlots;
+    public String[] fields;
+    public String[] superMethods;
+    public LazyBody lazy;
   }
   public static class If extends Stmt {
     public If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+      super(IF);
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
@@ -83,9 +158,24 @@ public abstract class Stmt {
     public final Stmt thenBranch;
     public final Stmt elseBranch;
   }
+  public static class Import extends Stmt {
+    public Import(String path, int line) {
+      super(IMPORT);
+      this.path = path;
+      this.line = line;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitImportStmt(this);
+    }
+    public final String path;
+    public int line;
+  }
   public static class Return extends Stmt {
-    public Return(Token keyword, Expr value) {
-      this.keyword = keyword;
+    public Return(int line, Expr value) {
+      super(RETURN);
+      this.line = line;
       this.value = value;
     }
 
@@ -93,11 +183,12 @@ public abstract class Stmt {
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitReturnStmt(this);
     }
-    public final Token keyword;
+    public int line;
     public final Expr value;
   }
   public static class Print extends Stmt {
     public Print(Expr expression) {
+      super(PRINT);
       this.expression = expression;
     }
 
@@ -108,20 +199,29 @@ public abstract class Stmt {
     public final Expr expression;
   }
   public static class Var extends Stmt {
-    public Var(Token name, Expr initializer) {
+    public Var(String name, int line, Expr initializer, boolean constant) {
+      super(VAR);
       this.name = name;
+      this.line = line;
       this.initializer = initializer;
+      this.constant = constant;
     }
 
     @Override
     public <R> R accept(Visitor<R> visitor) {
         return visitor.visitVarStmt(this);
     }
-    public final Token name;
+    public final String name;
+    public int line;
     public final Expr initializer;
+    public final boolean constant;
+
+    public int storage;
+    public int slot;
   }
   public static class While extends Stmt {
     public While(Expr condition, Stmt body) {
+      super(WHILE);
       this.condition = condition;
       this.body = body;
     }
@@ -132,6 +232,94 @@ public abstract class Stmt {
     }
     public final Expr condition;
     public final Stmt body;
+
+    public boolean counted;
+  }
+  public static class Increment extends Stmt {
+    public Increment(Stmt.Expression original, Expr.Assign target, double delta) {
+      super(INCREMENT);
+      this.original = original;
+      this.target = target;
+      this.delta = delta;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitIncrementStmt(this);
+    }
+    public final Stmt.Expression original;
+    public final Expr.Assign target;
+    public final double delta;
+  }
+  public static class AddAssign extends Stmt {
+    public AddAssign(Stmt.Expression original, Expr.Assign target, Expr operand) {
+      super(ADDASSIGN);
+      this.original = original;
+      this.target = target;
+      this.operand = operand;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitAddAssignStmt(this);
+    }
+    public final Stmt.Expression original;
+    public final Expr.Assign target;
+    public final Expr operand;
+  }
+  public static class CompareIf extends Stmt {
+    public CompareIf(Stmt.If original, Expr.Binary condition, Stmt thenBranch, Stmt elseBranch) {
+      super(COMPAREIF);
+      this.original = original;
+      this.condition = condition;
+      this.thenBranch = thenBranch;
+      this.elseBranch = elseBranch;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitCompareIfStmt(this);
+    }
+    public final Stmt.If original;
+    public final Expr.Binary condition;
+    public final Stmt thenBranch;
+    public final Stmt elseBranch;
+  }
+  public static class ReturnCall extends Stmt {
+    public ReturnCall(Stmt.Return original, Expr.Call call) {
+      super(RETURNCALL);
+      this.original = original;
+      this.call = call;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitReturnCallStmt(this);
+    }
+    public final Stmt.Return original;
+    public final Expr.Call call;
+  }
+  public static class Scalar extends Stmt {
+    public Scalar(Stmt.Var original, Expr.Call call, Stmt.Class type, int[] fieldSlots, int[] arguments, Object[] literals) {
+      super(SCALAR);
+      this.original = original;
+      this.call = call;
+      this.type = type;
+      this.fieldSlots = fieldSlots;
+      this.arguments = arguments;
+      this.literals = literals;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+        return visitor.visitScalarStmt(this);
+    }
+    public final Stmt.Var original;
+    public final Expr.Call call;
+    public final Stmt.Class type;
+    public final int[] fieldSlots;
+    public final int[] arguments;
+    public final Object[] literals;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
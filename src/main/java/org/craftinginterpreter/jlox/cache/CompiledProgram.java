@@ -0,0 +1,78 @@
+package org.craftinginterpreter.jlox.cache;
+
+import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.optimizer.ScalarReplacement;
+import org.craftinginterpreter.jlox.optimizer.Superinstructions;
+import org.craftinginterpreter.jlox.optimizer.TypeInference;
+import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.scanner.TokenBuffer;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+// a parsed and resolved program, the resolver's results are in the statements themselves. Types are
+// inferred, instances that don't escape replaced by their fields and common statement shapes fused into
+// superinstructions here, whether compiled or read from the cache.
+public class CompiledProgram {
+    private final List<Stmt> statements;
+    private final GlobalSlots globalSlots; // the family it was resolved in, it runs in interpreters of it
+
+    public CompiledProgram(List<Stmt> statements, GlobalSlots globalSlots) {
+        TypeInference.infer(statements);
+        ScalarReplacement.replace(statements);
+        Superinstructions.fuse(statements);
+        this.statements = statements;
+        this.globalSlots = globalSlots;
+    }
+
+    // scan, parse and resolve source, null if it has errors (they are reported through Lox.error)
+    public static CompiledProgram compile(String source) {
+        return compile(source, false);
+    }
+
+    public static CompiledProgram compile(String source, boolean lazy) {
+        return compile(source, lazy, GlobalSlots.DEFAULT);
+    }
+
+    // lazy: leave the bodies of top-level functions and methods to their first call (see LazyBody),
+    // errors in them are only reported then
+    public static CompiledProgram compile(String source, boolean lazy, GlobalSlots globalSlots) {
+        Scanner scanner = new Scanner(source);
+        TokenBuffer tokens = scanner.scanTokenBuffer();
+        Parser parser = new Parser(tokens, lazy);
+        List<Stmt> statements = parser.parse();
+        if (scanner.hadError() || parser.hadError() || statements == null) {
+            return null;
+        }
+
+        Resolver resolver = new Resolver(globalSlots);
+        resolver.resolve(statements);
+        if (resolver.hadError()) {
+            return null;
+        }
+        return new CompiledProgram(statements, globalSlots);
+    }
+
+    public List<Stmt> getStatements() {
+        return statements;
+    }
+
+    public GlobalSlots getGlobalSlots() {
+        return globalSlots;
+    }
+
+    // resolved statements in the format of the cache (see ProgramWriter), for files that hold programs
+    // along with other data. Fused statements are written as the ones they replaced.
+    public static void write(List<Stmt> statements, DataOutputStream out) throws IOException {
+        new ProgramWriter(out).write(statements);
+    }
+
+    // what write wrote, starting at data[offset], optimized again, its globals numbered in globalSlots
+    public static CompiledProgram read(byte[] data, int offset, GlobalSlots globalSlots) throws IOException {
+        return new ProgramReader(data, offset, globalSlots).read();
+    }
+}
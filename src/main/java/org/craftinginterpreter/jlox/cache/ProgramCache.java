@@ -0,0 +1,118 @@
+package org.craftinginterpreter.jlox.cache;
+
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+// Compiled programs cached next to their source: script.lox -> script.loxc. The file starts with a
+// magic number, the format version and the SHA-256 of the source, followed by the program in the
+// ProgramWriter format. A cache whose header doesn't match (or which fails to load at all) is ignored
+// and rewritten on the next compile.
+public class ProgramCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    // bump whenever the AST or the resolution data changes shape
+    public static final int FORMAT_VERSION = 8;
+
+    private ProgramCache() {
+    }
+
+    // the program for the file holding source, from the cache when it is up to date, compiled
+    // and cached otherwise. null if it has compile errors.
+    public static CompiledProgram compile(Path path, byte[] source) {
+        return compile(path, source, GlobalSlots.DEFAULT);
+    }
+
+    public static CompiledProgram compile(Path path, byte[] source, GlobalSlots globalSlots) {
+        CompiledProgram program = load(path, source, globalSlots);
+        if (program == null) {
+            program = CompiledProgram.compile(new String(source, Charset.defaultCharset()), false, globalSlots);
+            if (program != null) {
+                store(path, source, program);
+            }
+        }
+        return program;
+    }
+
+    public static Path cachePath(Path source) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(".lox")) {
+            name = name.substring(0, name.length() - ".lox".length());
+        }
+        return source.resolveSibling(name + ".loxc");
+    }
+
+    // the cached program for source, null if there is none or it is stale
+    public static CompiledProgram load(Path path, byte[] source) {
+        return load(path, source, GlobalSlots.DEFAULT);
+    }
+
+    public static CompiledProgram load(Path path, byte[] source, GlobalSlots globalSlots) {
+        Path cache = cachePath(path);
+        if (!Files.isRegularFile(cache)) {
+            return null;
+        }
+        try {
+            byte[] data = Files.readAllBytes(cache);
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+            if (header.readInt() != MAGIC || header.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] hash = new byte[header.readUnsignedByte()];
+            header.readFully(hash);
+            if (!Arrays.equals(hash, hash(source))) {
+                return null;
+            }
+            return new ProgramReader(data, 9 + hash.length, globalSlots).read();
+        } catch (IOException | RuntimeException e) {
+            // unreadable or written by an incompatible build, compile again
+            return null;
+        }
+    }
+
+    // best effort, a directory we can't write to just means no cache
+    public static void store(Path path, byte[] source, CompiledProgram program) {
+        Path cache = cachePath(path);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(), ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeInt(FORMAT_VERSION);
+                byte[] hash = hash(source);
+                header.writeByte(hash.length);
+                header.write(hash);
+                new ProgramWriter(header).write(program.getStatements());
+                header.flush();
+            }
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static byte[] hash(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
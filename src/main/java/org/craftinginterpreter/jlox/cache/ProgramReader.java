@@ -0,0 +1,340 @@
+package org.craftinginterpreter.jlox.cache;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.scanner.TokenType;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// reads back what ProgramWriter wrote, see there for the format
+class ProgramReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final byte[] data;
+    private int position;
+    private final List<String> strings = new ArrayList<>();
+    private final GlobalSlots globalSlots;
+
+    ProgramReader(byte[] data, int position, GlobalSlots globalSlots) {
+        this.data = data;
+        this.position = position;
+        this.globalSlots = globalSlots;
+    }
+
+    CompiledProgram read() throws IOException {
+        List<Stmt> statements = readStmts();
+        return new CompiledProgram(statements, globalSlots);
+    }
+
+    private List<Stmt> readStmts() throws IOException {
+        int size = readInt();
+        List<Stmt> statements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+
+    private Stmt[] readStmtArray() throws IOException {
+        Stmt[] statements = new Stmt[readInt()];
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = readStmt();
+        }
+        return statements;
+    }
+
+    private Expr[] readExprs() throws IOException {
+        Expr[] exprs = new Expr[readInt()];
+        for (int i = 0; i < exprs.length; i++) {
+            exprs[i] = readExpr();
+        }
+        return exprs;
+    }
+
+    private Stmt readStmt() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case ProgramWriter.NULL:
+                return null;
+            case ProgramWriter.BLOCK: {
+                int frameSize = readInt();
+                Stmt.Block block = new Stmt.Block(readStmtArray());
+                block.frameSize = frameSize;
+                return block;
+            }
+            case ProgramWriter.CLASS: {
+                int storage = readInt();
+                int slot = readInt();
+                String name = readString();
+                int line = readInt();
+                Expr.Var superclass = (Expr.Var) readExpr();
+                Stmt.Function[] methods = new Stmt.Function[readInt()];
+                for (int i = 0; i < methods.length; i++) {
+                    methods[i] = (Stmt.Function) readStmt();
+                }
+                Stmt.Class klass = new Stmt.Class(name, line, superclass, methods);
+                klass.storage = storage;
+                klass.slot = located(storage, slot, name);
+                return klass;
+            }
+            case ProgramWriter.EXPRESSION:
+                return new Stmt.Expression(readExpr());
+            case ProgramWriter.FUNCTION: {
+                int storage = readInt();
+                int slot = readInt();
+                int frameSize = readInt();
+                int thisStorage = readInt();
+                int thisSlot = readInt();
+                int superStorage = readInt();
+                int superSlot = readInt();
+                int[] captureSlots = new int[readInt()];
+                boolean[] capturesLocal = new boolean[captureSlots.length];
+                for (int i = 0; i < captureSlots.length; i++) {
+                    capturesLocal[i] = readByte() != 0;
+                    captureSlots[i] = readInt();
+                }
+                String[] fields = readNames();
+                String[] superMethods = readNames();
+                String name = readString();
+                int line = readInt();
+                String[] params = new String[readInt()];
+                int[] paramStorages = new int[params.length];
+                int[] paramSlots = new int[params.length];
+                for (int i = 0; i < params.length; i++) {
+                    params[i] = readString();
+                    paramStorages[i] = readInt();
+                    paramSlots[i] = readInt();
+                }
+                Stmt.Function function = new Stmt.Function(name, line, params, readStmtArray());
+                function.storage = storage;
+                function.slot = located(storage, slot, name);
+                function.frameSize = frameSize;
+                function.paramStorages = paramStorages;
+                function.paramSlots = paramSlots;
+                function.thisStorage = thisStorage;
+                function.thisSlot = thisSlot;
+                function.superStorage = superStorage;
+                function.superSlot = superSlot;
+                function.capturesLocal = capturesLocal;
+                function.captureSlots = captureSlots;
+                function.fields = fields;
+                function.superMethods = superMethods;
+                return function;
+            }
+            case ProgramWriter.IF: {
+                Expr condition = readExpr();
+                Stmt thenBranch = readStmt();
+                return new Stmt.If(condition, thenBranch, readStmt());
+            }
+            case ProgramWriter.IMPORT: {
+                String path = readString();
+                return new Stmt.Import(path, readInt());
+            }
+            case ProgramWriter.RETURN: {
+                int line = readInt();
+                return new Stmt.Return(line, readExpr());
+            }
+            case ProgramWriter.PRINT:
+                return new Stmt.Print(readExpr());
+            case ProgramWriter.VAR_STMT: {
+                int storage = readInt();
+                int slot = readInt();
+                boolean constant = readByte() != 0;
+                String name = readString();
+                int line = readInt();
+                Stmt.Var var = new Stmt.Var(name, line, readExpr(), constant);
+                var.storage = storage;
+                var.slot = located(storage, slot, name);
+                return var;
+            }
+            case ProgramWriter.WHILE: {
+                boolean counted = readByte() != 0;
+                Expr condition = readExpr();
+                Stmt.While loop = new Stmt.While(condition, readStmt());
+                loop.counted = counted;
+                return loop;
+            }
+        }
+        throw new IOException("Unknown statement tag " + tag + ".");
+    }
+
+    private Expr readExpr() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case ProgramWriter.NULL:
+                return null;
+            case ProgramWriter.ASSIGN: {
+                int storage = readInt();
+                int slot = readInt();
+                String name = readString();
+                int line = readInt();
+                Expr.Assign assign = new Expr.Assign(name, line, readExpr());
+                assign.storage = storage;
+                assign.slot = located(storage, slot, name);
+                return assign;
+            }
+            case ProgramWriter.BINARY: {
+                Expr left = readExpr();
+                TokenType operator = readOperator();
+                int line = readInt();
+                return new Expr.Binary(left, operator, line, readExpr());
+            }
+            case ProgramWriter.CALL: {
+                Expr callee = readExpr();
+                int line = readInt();
+                return new Expr.Call(callee, line, readExprs());
+            }
+            case ProgramWriter.GET: {
+                Expr object = readExpr();
+                String name = readString();
+                return new Expr.Get(object, name, readInt());
+            }
+            case ProgramWriter.SET: {
+                Expr object = readExpr();
+                String name = readString();
+                int line = readInt();
+                return new Expr.Set(object, name, line, readExpr());
+            }
+            case ProgramWriter.SUPER: {
+                int storage = readInt();
+                int slot = readInt();
+                int thisStorage = readInt();
+                int thisSlot = readInt();
+                int index = readInt();
+                String method = readString();
+                Expr.Super superExpr = new Expr.Super(method, readInt());
+                superExpr.storage = storage;
+                superExpr.slot = slot;
+                superExpr.thisStorage = thisStorage;
+                superExpr.thisSlot = thisSlot;
+                superExpr.index = index;
+                return superExpr;
+            }
+            case ProgramWriter.THIS: {
+                int storage = readInt();
+                int slot = readInt();
+                Expr.This thisExpr = new Expr.This(readInt());
+                thisExpr.storage = storage;
+                thisExpr.slot = slot;
+                return thisExpr;
+            }
+            case ProgramWriter.GROUPING:
+                return new Expr.Grouping(readExpr());
+            case ProgramWriter.LITERAL:
+                return new Expr.Literal(readLiteral());
+            case ProgramWriter.LOGICAL: {
+                Expr left = readExpr();
+                TokenType operator = readOperator();
+                return new Expr.Logical(left, operator, readExpr());
+            }
+            case ProgramWriter.UNARY: {
+                TokenType operator = readOperator();
+                int line = readInt();
+                return new Expr.Unary(operator, line, readExpr());
+            }
+            case ProgramWriter.VAR: {
+                int storage = readInt();
+                int slot = readInt();
+                Object constant = storage == Resolver.CONSTANT ? readLiteral() : null;
+                String name = readString();
+                Expr.Var var = new Expr.Var(name, readInt());
+                var.storage = storage;
+                var.constant = constant;
+                var.slot = located(storage, slot, name);
+                return var;
+            }
+        }
+        throw new IOException("Unknown expression tag " + tag + ".");
+    }
+
+    // global numbers are only good in the family that resolved the program, so they are taken again
+    private int located(int storage, int slot, String name) {
+        return storage == Resolver.GLOBAL ? globalSlots.slot(name) : slot;
+    }
+
+    private TokenType readOperator() throws IOException {
+        int ordinal = readByte();
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Unknown operator " + ordinal + ".");
+        }
+        return TYPES[ordinal];
+    }
+
+    private Object readLiteral() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case ProgramWriter.NIL:
+                return null;
+            case ProgramWriter.TRUE:
+                return true;
+            case ProgramWriter.FALSE:
+                return false;
+            case ProgramWriter.NUMBER:
+                return Double.longBitsToDouble(readLong());
+            case ProgramWriter.STRING:
+                return readString();
+        }
+        throw new IOException("Unknown literal tag " + tag + ".");
+    }
+
+    private int readByte() throws IOException {
+        if (position >= data.length) {
+            throw new EOFException();
+        }
+        return data[position++] & 0xff;
+    }
+
+    private long readLong() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private int readInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    // see ProgramWriter.writeNames
+    private String[] readNames() throws IOException {
+        int count = readInt();
+        if (count == 0) {
+            return null;
+        }
+        String[] names = new String[count - 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString();
+        }
+        return names;
+    }
+
+    private String readString() throws IOException {
+        int index = readInt();
+        if (index < strings.size()) {
+            return strings.get(index);
+        }
+        int length = readInt();
+        if (length > data.length - position) {
+            throw new EOFException();
+        }
+        // interned like the parser does it, names from the cache share Strings with freshly parsed code
+        String value = new String(data, position, length, StandardCharsets.UTF_8).intern();
+        position += length;
+        strings.add(value);
+        return value;
+    }
+}
@@ -0,0 +1,430 @@
+package org.craftinginterpreter.jlox.cache;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.scanner.TokenType;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes a CompiledProgram in the binary cache format read back by ProgramReader: a tag byte per node
+// followed by its fields, ints as varints, strings go through a table so every name is written once.
+// Resolved fields are written right after the tag.
+class ProgramWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int NULL = 0xff;
+
+    // literal tags
+    static final int NIL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    ProgramWriter(DataOutputStream out) {
+        this.out = out;
+    }
+
+    void write(List<Stmt> statements) throws IOException {
+        try {
+            writeStmts(statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void writeStmts(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt stmt : statements) {
+            write(stmt);
+        }
+    }
+
+    private void writeStmts(Stmt[] statements) {
+        writeInt(statements.length);
+        for (Stmt stmt : statements) {
+            write(stmt);
+        }
+    }
+
+    private void writeExprs(Expr[] exprs) {
+        writeInt(exprs.length);
+        for (Expr expr : exprs) {
+            write(expr);
+        }
+    }
+
+    private void write(Stmt stmt) {
+        if (stmt == null) {
+            writeByte(NULL);
+        } else {
+            stmt.accept(this);
+        }
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) {
+            writeByte(NULL);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    private void writeLocation(int storage, int slot) {
+        writeInt(storage);
+        writeInt(slot);
+    }
+
+    private void write(TokenType operator) {
+        writeByte(operator.ordinal());
+    }
+
+    private void writeLiteral(Object value) {
+        if (value == null) {
+            writeByte(NIL);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            writeByte(NUMBER);
+            try {
+                out.writeDouble((Double) value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            writeByte(STRING);
+            writeString((String) value);
+        }
+    }
+
+    // index into the string table, a new index is followed by the string itself
+    private void writeString(String value) {
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeInt(index);
+            return ;
+        }
+        writeInt(strings.size());
+        strings.put(value, strings.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the count shifted by one, 0 for null (fields of a function that is not an initializer, super
+    // methods of one that is not a method)
+    private void writeNames(String[] names) {
+        writeInt(names == null ? 0 : names.length + 1);
+        if (names != null) {
+            for (String name : names) {
+                writeString(name);
+            }
+        }
+    }
+
+    private void writeByte(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // unsigned LEB128, names, lines and sizes are small
+    private void writeInt(int value) {
+        try {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // expression tags, in Expr.Visitor order
+    static final int ASSIGN = 0;
+    static final int BINARY = 1;
+    static final int CALL = 2;
+    static final int GET = 3;
+    static final int SET = 4;
+    static final int SUPER = 5;
+    static final int THIS = 6;
+    static final int GROUPING = 7;
+    static final int LITERAL = 8;
+    static final int LOGICAL = 9;
+    static final int UNARY = 10;
+    static final int VAR = 11;
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        writeByte(ASSIGN);
+        writeLocation(expr.storage, expr.slot);
+        writeString(expr.name);
+        writeInt(expr.line);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        writeByte(BINARY);
+        write(expr.left);
+        write(expr.operator);
+        writeInt(expr.line);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        writeByte(CALL);
+        write(expr.callee);
+        writeInt(expr.line);
+        writeExprs(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        writeByte(GET);
+        write(expr.object);
+        writeString(expr.name);
+        writeInt(expr.line);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        writeByte(SET);
+        write(expr.object);
+        writeString(expr.name);
+        writeInt(expr.line);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        writeByte(SUPER);
+        writeLocation(expr.storage, expr.slot);
+        writeLocation(expr.thisStorage, expr.thisSlot);
+        writeInt(expr.index);
+        writeString(expr.method);
+        writeInt(expr.line);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        writeByte(THIS);
+        writeLocation(expr.storage, expr.slot);
+        writeInt(expr.line);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        writeByte(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        writeByte(LITERAL);
+        writeLiteral(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        writeByte(LOGICAL);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        writeByte(UNARY);
+        write(expr.operator);
+        writeInt(expr.line);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        writeByte(VAR);
+        writeLocation(expr.storage, expr.slot);
+        if (expr.storage == Resolver.CONSTANT) {
+            writeLiteral(expr.constant);
+        }
+        writeString(expr.name);
+        writeInt(expr.line);
+        return null;
+    }
+
+    // statement tags, in Stmt.Visitor order
+    static final int BLOCK = 0;
+    static final int CLASS = 1;
+    static final int EXPRESSION = 2;
+    static final int FUNCTION = 3;
+    static final int IF = 4;
+    static final int IMPORT = 5;
+    static final int RETURN = 6;
+    static final int PRINT = 7;
+    static final int VAR_STMT = 8;
+    static final int WHILE = 9;
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        writeByte(BLOCK);
+        writeInt(stmt.frameSize);
+        writeStmts(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        writeByte(CLASS);
+        writeLocation(stmt.storage, stmt.slot);
+        writeString(stmt.name);
+        writeInt(stmt.line);
+        write(stmt.superclass);
+        writeStmts(stmt.methods);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        writeByte(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        writeByte(FUNCTION);
+        writeLocation(stmt.storage, stmt.slot);
+        // the slots ScalarReplacement added are added again when the program is loaded
+        writeInt(stmt.frameSize - stmt.scalarSlots);
+        writeLocation(stmt.thisStorage, stmt.thisSlot);
+        writeLocation(stmt.superStorage, stmt.superSlot);
+        // a byte for where each free variable comes from, then its slot there
+        writeInt(stmt.captureSlots.length);
+        for (int i = 0; i < stmt.captureSlots.length; i++) {
+            writeByte(stmt.capturesLocal[i] ? 1 : 0);
+            writeInt(stmt.captureSlots[i]);
+        }
+        writeNames(stmt.fields);
+        writeNames(stmt.superMethods);
+        writeString(stmt.name);
+        writeInt(stmt.line);
+        writeInt(stmt.params.length);
+        for (int i = 0; i < stmt.params.length; i++) {
+            writeString(stmt.params[i]);
+            writeLocation(stmt.paramStorages[i], stmt.paramSlots[i]);
+        }
+        writeStmts(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        writeByte(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        writeByte(IMPORT);
+        writeString(stmt.path);
+        writeInt(stmt.line);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        writeByte(RETURN);
+        writeInt(stmt.line);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        writeByte(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        writeByte(VAR_STMT);
+        writeLocation(stmt.storage, stmt.slot);
+        writeByte(stmt.constant ? 1 : 0);
+        writeString(stmt.name);
+        writeInt(stmt.line);
+        write(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        writeByte(WHILE);
+        writeByte(stmt.counted ? 1 : 0);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    // superinstructions are written as the statements they replace, and fused again when read
+    @Override
+    public Void visitIncrementStmt(Stmt.Increment stmt) {
+        write(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitAddAssignStmt(Stmt.AddAssign stmt) {
+        write(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareIfStmt(Stmt.CompareIf stmt) {
+        write(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnCallStmt(Stmt.ReturnCall stmt) {
+        write(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitScalarStmt(Stmt.Scalar stmt) {
+        write(stmt.original);
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+package org.craftinginterpreter.jlox.engine;
+
+import org.craftinginterpreter.jlox.ErrorReporter;
+import org.craftinginterpreter.jlox.Lox;
+import org.craftinginterpreter.jlox.executor.RuntimeError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the errors of one compile or run, instead of the console
+class ErrorCollector implements ErrorReporter {
+    private final List<String> errors = new ArrayList<>();
+    private boolean compileError = false;
+
+    @Override
+    public synchronized void error(int line, String where, String message) {
+        compileError = true;
+        errors.add(Lox.formatError(line, where, message));
+    }
+
+    @Override
+    public synchronized void runtimeError(RuntimeError error) {
+        errors.add(Lox.formatRuntimeError(error));
+    }
+
+    synchronized boolean hadError() {
+        return !errors.isEmpty();
+    }
+
+    // a compile error wins like in the exit code of the command line, e.g. for a lazily compiled body
+    // whose errors then fail the call to it
+    synchronized void check() throws LoxException {
+        if (!errors.isEmpty()) {
+            throw new LoxException(compileError ? LoxException.COMPILE_ERROR : LoxException.RUNTIME_ERROR,
+                    new ArrayList<>(errors));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.craftinginterpreter.jlox.engine;
+
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// A program scanned, parsed and resolved once. Every eval runs it in a new LoxContext: the global and
+// engine Bindings become globals first (numbers as Lox numbers), and afterwards the globals the program
+// declares and the engine bindings are copied back, so the next eval sees them. print goes to the
+// context's writer. eval returns null, results are read from the bindings.
+public class LoxCompiledScript extends CompiledScript {
+    private final ScriptEngine scriptEngine;
+    private final LoxEngine engine;
+    private final CompiledProgram program;
+    private final List<String> declared = new ArrayList<>(); // names of top-level declarations
+
+    LoxCompiledScript(ScriptEngine scriptEngine, LoxEngine engine, CompiledProgram program) {
+        this.scriptEngine = scriptEngine;
+        this.engine = engine;
+        this.program = program;
+        for (Stmt stmt : program.getStatements()) {
+            if (stmt.kind == Stmt.VAR) {
+                declared.add(((Stmt.Var) stmt).name);
+            } else if (stmt.kind == Stmt.FUNCTION) {
+                declared.add(((Stmt.Function) stmt).name);
+            } else if (stmt.kind == Stmt.CLASS) {
+                declared.add(((Stmt.Class) stmt).name);
+            }
+        }
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        PrintStream out;
+        try {
+            out = new PrintStream(new WriterOutputStream(context.getWriter()), true, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new ScriptException(e);
+        }
+        LoxContext lox = engine.newContext(out, baseDir(context));
+
+        Bindings globals = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        define(lox, globals);
+        define(lox, bindings);
+        try {
+            lox.run(program);
+        } catch (LoxException e) {
+            throw new ScriptException(e.getMessage());
+        } finally {
+            out.flush();
+        }
+
+        if (bindings != null) {
+            Set<String> names = new LinkedHashSet<>(declared);
+            names.addAll(bindings.keySet());
+            for (String name : names) {
+                if (!name.startsWith("javax.script.")) {
+                    bindings.put(name, lox.get(name));
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return scriptEngine;
+    }
+
+    private static void define(LoxContext lox, Bindings bindings) {
+        if (bindings == null) {
+            return ;
+        }
+        for (String name : bindings.keySet()) {
+            if (name.startsWith("javax.script.")) {
+                continue;
+            }
+            Object value = bindings.get(name);
+            lox.define(name, value instanceof Number ? ((Number) value).doubleValue() : value);
+        }
+    }
+
+    // imports are relative to the script file if the context names one
+    private static Path baseDir(ScriptContext context) {
+        Object file = context.getAttribute(ScriptEngine.FILENAME);
+        if (file != null) {
+            Path parent = Paths.get(file.toString()).toAbsolutePath().getParent();
+            if (parent != null) {
+                return parent;
+            }
+        }
+        return Paths.get("").toAbsolutePath();
+    }
+
+    // the bytes of what print writes, decoded for the context's Writer on every flush; the PrintStream
+    // flushes after each line, so a flush never splits a character
+    private static class WriterOutputStream extends OutputStream {
+        private final Writer writer;
+        private byte[] buffer = new byte[256];
+        private int size = 0;
+
+        WriterOutputStream(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int b) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (size + len > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(size + len, size * 2));
+            }
+            System.arraycopy(b, off, buffer, size, len);
+            size += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.write(new String(buffer, 0, size, StandardCharsets.UTF_8));
+            writer.flush();
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.craftinginterpreter.jlox.engine;
+
+import org.craftinginterpreter.jlox.Lox;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.executor.Interpreter;
+import org.craftinginterpreter.jlox.executor.Stopped;
+import org.craftinginterpreter.jlox.module.LoxModule;
+import org.craftinginterpreter.jlox.module.ModuleLoader;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+// One isolated Lox runtime: an Interpreter with its globals, where print goes, the modules imported so
+// far and the errors of each run. Programs run one after the other share the globals, like lines in the
+// prompt. Contexts don't share anything but the compiled programs and what a fork shares copy-on-write,
+// so different contexts can run on different threads at once; a context itself runs one program at a
+// time.
+public class LoxContext {
+    private final Interpreter interpreter;
+    private final ModuleLoader modules;
+    private final Path baseDir; // imports of the programs run are relative to it
+
+    LoxContext(PrintStream out, Path baseDir, GlobalSlots globalSlots) {
+        this(new Interpreter(out, globalSlots), new ModuleLoader(globalSlots), baseDir);
+    }
+
+    private LoxContext(Interpreter interpreter, ModuleLoader modules, Path baseDir) {
+        this.interpreter = interpreter;
+        this.modules = modules;
+        this.baseDir = baseDir;
+    }
+
+    // A context that starts with everything this one has, e.g. after running a prelude, without copying
+    // it: the globals and instances are copied on write, by whichever context writes (see
+    // Interpreter.fork). Forks are independent contexts, they may run on other threads.
+    public synchronized LoxContext fork(PrintStream out) {
+        return new LoxContext(interpreter.fork(out), new ModuleLoader(modules), baseDir);
+    }
+
+    // runs the modules program imports that didn't run in this context yet, then program
+    // program must be compiled by the LoxEngine that made the context
+    public synchronized void run(CompiledProgram program) throws LoxException {
+        if (program.getGlobalSlots() != interpreter.getGlobalSlots()) {
+            throw new IllegalArgumentException("The program was compiled by another LoxEngine.");
+        }
+        ErrorCollector errors = new ErrorCollector();
+        try {
+            Lox.reportingTo(errors, () -> {
+                execute(program, errors);
+                return null;
+            });
+        } catch (Stopped stopped) {
+            throw new LoxException(LoxException.RUNTIME_ERROR, Collections.singletonList(stopped.getMessage()));
+        }
+        errors.check();
+    }
+
+    // makes run() throw a LoxException with reason, from the next call or loop iteration of the program
+    // it runs. Can be called from any thread, the context can't run anything after it.
+    public void stop(String reason) {
+        interpreter.stop(reason);
+    }
+
+    private void execute(CompiledProgram program, ErrorCollector errors) {
+        List<LoxModule> dependencies = modules.load(baseDir, program.getStatements());
+        if (errors.hadError()) {
+            return ;
+        }
+        for (LoxModule module : dependencies) {
+            interpreter.interpret(module.getStatements());
+            if (errors.hadError()) {
+                return ;
+            }
+            modules.ran(module);
+        }
+        interpreter.interpret(program.getStatements());
+    }
+
+    // the value of a global, null if it isn't defined
+    public synchronized Object get(String name) {
+        return interpreter.getGlobal(name);
+    }
+
+    // defines or replaces a global, e.g. an input for the next program or a LoxCallable to call back
+    public synchronized void define(String name, Object value) {
+        interpreter.defineGlobal(name, value);
+    }
+}
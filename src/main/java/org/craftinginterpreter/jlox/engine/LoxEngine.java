@@ -0,0 +1,73 @@
+package org.craftinginterpreter.jlox.engine;
+
+import org.craftinginterpreter.jlox.Lox;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.cache.ProgramCache;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Runs Lox inside a Java program. The engine compiles programs and hands out LoxContexts to run them.
+// A compiled program is not changed by running it, so one program may run in any number of contexts at
+// the same time, on any threads. Each context has its own Interpreter (globals, output) and its own
+// errors, see LoxContext.
+//     LoxEngine engine = new LoxEngine();
+//     CompiledProgram program = engine.compile("print 1 + 2;");
+//     engine.newContext().run(program);
+// Compile errors and runtime errors are thrown as a LoxException with the messages the command line
+// would print.
+// The engine numbers the global names its programs mention (see GlobalSlots), so its programs only run in
+// its own contexts. The numbers are kept as long as the engine, its programs or contexts are, one per
+// name: an embedder running an unbounded variety of scripts should start a new engine now and then.
+public class LoxEngine {
+    private final boolean lazy;
+    private final GlobalSlots globalSlots = new GlobalSlots();
+
+    public LoxEngine() {
+        this(false);
+    }
+
+    // lazy: compile function bodies on their first call, like jlox --lazy
+    public LoxEngine(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public CompiledProgram compile(String source) throws LoxException {
+        ErrorCollector errors = new ErrorCollector();
+        CompiledProgram program = Lox.reportingTo(errors, () -> CompiledProgram.compile(source, lazy, globalSlots));
+        errors.check();
+        return program;
+    }
+
+    // through the program cache next to the file, like jlox does (never lazy)
+    public CompiledProgram compile(Path file) throws IOException, LoxException {
+        Path path = file.toAbsolutePath();
+        byte[] source = Files.readAllBytes(path);
+        if (lazy) {
+            return compile(new String(source, Charset.defaultCharset()));
+        }
+        ErrorCollector errors = new ErrorCollector();
+        CompiledProgram program = Lox.reportingTo(errors, () -> ProgramCache.compile(path, source, globalSlots));
+        errors.check();
+        return program;
+    }
+
+    // printing to System.out, importing relative to the working directory
+    public LoxContext newContext() {
+        return newContext(System.out, Paths.get("").toAbsolutePath());
+    }
+
+    public LoxContext newContext(PrintStream out, Path baseDir) {
+        return new LoxContext(out, baseDir, globalSlots);
+    }
+
+    // how many global names the engine's programs mentioned so far
+    public int globalNames() {
+        return globalSlots.size();
+    }
+}
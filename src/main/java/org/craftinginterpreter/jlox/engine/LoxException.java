@@ -0,0 +1,28 @@
+package org.craftinginterpreter.jlox.engine;
+
+import java.util.Collections;
+import java.util.List;
+
+// A program that didn't compile or stopped on a runtime error. The messages read like the command line
+// prints them, the exit code is the one it would exit with.
+public class LoxException extends Exception {
+    public static final int COMPILE_ERROR = 65;
+    public static final int RUNTIME_ERROR = 70;
+
+    private final int exitCode;
+    private final List<String> errors;
+
+    LoxException(int exitCode, List<String> errors) {
+        super(String.join("\n", errors));
+        this.exitCode = exitCode;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
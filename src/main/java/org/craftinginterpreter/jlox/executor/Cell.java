@@ -0,0 +1,18 @@
+package org.craftinginterpreter.jlox.executor;
+
+// the value of a global, or of a local a closure captured
+public final class Cell {
+    Object value;
+    final boolean constant; // a global const, see Interpreter.store
+    final Object owner; // the Interpreter.heap it was created in, see Interpreter.fork
+
+    Cell(Object value, Object owner) {
+        this(value, false, owner);
+    }
+
+    Cell(Object value, boolean constant, Object owner) {
+        this.value = value;
+        this.constant = constant;
+        this.owner = owner;
+    }
+}
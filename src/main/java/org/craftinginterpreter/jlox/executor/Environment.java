@@ -1,67 +0,0 @@
-package org.craftinginterpreter.jlox.executor;
-
-import org.craftinginterpreter.jlox.scanner.Token;
-
-import java.util.HashMap;
-import java.util.Map;
-
-public class Environment {
-
-    final Environment enclosing; //reference environment
-    private final Map<String, Object> values = new HashMap<>();
-
-    Environment() {
-        enclosing = null;
-    }
-
-    public Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
-
-    public void define(String name, Object value) {
-        values.put(name, value);
-    }
-
-    public Object get(Token name) {
-        if (values.containsKey(name.getLexeme())) {
-            return values.get(name.getLexeme());
-        }
-        // the variable is not in this env, look up
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
-    }
-
-    public void assign(Token name, Object value) {
-        if (values.containsKey(name.getLexeme())) {
-            values.put(name.getLexeme(), value);
-            return ;
-        }
-
-        // the variable is not in this env, look up
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return ;
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
-    }
-
-    public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
-    }
-
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.getLexeme(), value);
-    }
-
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
-        }
-        return environment;
-    }
-}
@@ -0,0 +1,571 @@
+package org.craftinginterpreter.jlox.executor;
+
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.cache.ProgramCache;
+import org.craftinginterpreter.jlox.function.LoxFunction;
+import org.craftinginterpreter.jlox.helper.LoxCallable;
+import org.craftinginterpreter.jlox.oop.LoxClass;
+import org.craftinginterpreter.jlox.oop.LoxInstance;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The globals of an Interpreter saved to a file, and everything reachable from them: instances, classes,
+// functions and the Cells their closures captured. Loading it into another interpreter, in another
+// process too, defines the same globals again without running the code that built them.
+// The file starts with a magic number, its version and the ProgramCache format version, then the
+// declarations of the classes and functions in the ProgramWriter format, then the globals. Values are a
+// tag byte followed by their fields, ints as varints and strings through a table as in ProgramWriter.
+// Instances, classes, functions and Cells are numbered in the order they are written and written once,
+// later references are by number, so shared objects stay shared and cycles are fine. Native functions
+// are written as the name of the global that holds them and are looked up among the globals of the
+// interpreter loading the snapshot.
+// What can't be saved: functions of a lazily parsed program (their bodies may not be compiled) and a
+// class, function or instance that is reachable from its own superclass, receiver or class (it would be
+// needed before it can be created). Modules imported before are not remembered as loaded.
+public class HeapSnapshot {
+    private static final int MAGIC = 0x4c4f5853; // "LOXS"
+    private static final int VERSION = 1;
+
+    // value tags
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+    private static final int REF = 5;
+    private static final int INSTANCE = 6;
+    private static final int CLASS = 7;
+    private static final int FUNCTION = 8;
+    private static final int NATIVE = 9;
+    private static final int SUPER_METHODS = 10; // the methods 'super' calls, in a Cell a closure captured
+    private static final int CELL = 11;
+
+    private HeapSnapshot() {
+    }
+
+    // not while the interpreter is running
+    public static void save(Interpreter interpreter, Path path) throws IOException {
+        Writer writer = new Writer(interpreter);
+        onLargeStack(writer::writeGlobals);
+        ByteArrayOutputStream program = new ByteArrayOutputStream();
+        CompiledProgram.write(writer.declarations, new DataOutputStream(program));
+
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+                DataOutputStream out = new DataOutputStream(file);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ProgramCache.FORMAT_VERSION);
+                out.writeInt(program.size());
+                program.writeTo(out);
+                writer.bytes.writeTo(out);
+                out.flush();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // defines the globals of the snapshot in interpreter, replacing ones of the same name
+    public static void load(Interpreter interpreter, Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("No such file.");
+        }
+        byte[] data = Files.readAllBytes(path);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 16 || in.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot.");
+        }
+        if (in.readInt() != VERSION || in.readInt() != ProgramCache.FORMAT_VERSION) {
+            throw new IOException("Snapshot of an incompatible version.");
+        }
+        int programSize = in.readInt();
+        if (programSize < 0 || programSize > data.length - 16) {
+            throw new IOException("Corrupt snapshot.");
+        }
+        List<Stmt> declarations;
+        try {
+            declarations = CompiledProgram.read(data, 16, interpreter.getGlobalSlots()).getStatements();
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot.");
+        }
+        in.skipBytes(programSize);
+
+        onLargeStack(() -> {
+            try {
+                new Reader(interpreter, declarations, in).readGlobals();
+            } catch (EOFException | RuntimeException e) {
+                // cut off, or values of the wrong kind where a class or function is expected
+                throw new IOException("Corrupt snapshot.");
+            }
+        });
+    }
+
+    private interface Work {
+        void run() throws IOException;
+    }
+
+    // values are written and read recursively, as deep as the longest chain of references: a linked list
+    // of a million instances needs a stack like the deepest Lox calls (see Interpreter.onStackSegment)
+    private static void onLargeStack(Work work) throws IOException {
+        Throwable[] thrown = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                work.run();
+            } catch (StackOverflowError e) {
+                thrown[0] = new IOException("Values are nested too deeply.");
+            } catch (Throwable throwable) {
+                thrown[0] = throwable;
+            }
+        }, "jlox-snapshot", Interpreter.SEGMENT_STACK);
+        thread.start();
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (thrown[0] instanceof IOException) {
+            throw (IOException) thrown[0];
+        }
+        if (thrown[0] instanceof RuntimeException) {
+            throw (RuntimeException) thrown[0];
+        }
+        if (thrown[0] instanceof Error) {
+            throw (Error) thrown[0];
+        }
+    }
+
+    private static class Writer {
+        private final Interpreter interpreter;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        // written but not created yet when read back, see writeRef
+        private final Set<Object> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        // the classes and functions written to the program part, by their index there
+        final List<Stmt> declarations = new ArrayList<>();
+        private final Map<Stmt, Integer> indexes = new IdentityHashMap<>();
+
+        Writer(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        void writeGlobals() throws IOException {
+            Cell[] globals = interpreter.globals;
+            int count = 0;
+            for (Cell cell : globals) {
+                if (cell != null) {
+                    count++;
+                }
+            }
+            writeInt(count);
+            for (int slot = 0; slot < globals.length; slot++) {
+                if (globals[slot] != null) {
+                    Cell cell = interpreter.readable(globals[slot]);
+                    writeString(interpreter.getGlobalSlots().name(slot));
+                    out.writeBoolean(cell.constant);
+                    write(cell.value);
+                }
+            }
+        }
+
+        private void write(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                out.writeByte(NUMBER);
+                out.writeDouble((Double) value);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if (writeRef(value)) {
+                return ;
+            } else if (value instanceof LoxInstance) {
+                writeInstance((LoxInstance) value);
+            } else if (value instanceof LoxClass) {
+                writeClass((LoxClass) value);
+            } else if (value instanceof LoxFunction) {
+                writeFunction((LoxFunction) value);
+            } else if (value instanceof LoxFunction[]) {
+                LoxFunction[] methods = (LoxFunction[]) value;
+                out.writeByte(SUPER_METHODS);
+                writeInt(methods.length);
+                for (LoxFunction method : methods) {
+                    write(method);
+                }
+            } else if (value instanceof LoxCallable) {
+                out.writeByte(NATIVE);
+                writeString(nativeName(value));
+            } else {
+                throw new IOException("Can't save a " + value.getClass().getSimpleName() + ".");
+            }
+        }
+
+        // a reference if the object was written before
+        private boolean writeRef(Object object) throws IOException {
+            Integer id = ids.get(object);
+            if (id == null) {
+                return false;
+            }
+            if (pending.contains(object)) {
+                throw new IOException("Can't save '" + object + "', it is reachable from what it is created from.");
+            }
+            out.writeByte(REF);
+            writeInt(id);
+            return true;
+        }
+
+        private void register(Object object) {
+            ids.put(object, ids.size());
+        }
+
+        private void writeInstance(LoxInstance instance) throws IOException {
+            out.writeByte(INSTANCE);
+            register(instance);
+            pending.add(instance);
+            write(instance.getKlass());
+            pending.remove(instance);
+
+            Map<String, Object> fields = interpreter.readable(instance).getFields();
+            writeInt(fields.size());
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                writeString(field.getKey());
+                write(field.getValue());
+            }
+        }
+
+        // the methods are created along with the class, their closures are written after it
+        private void writeClass(LoxClass loxClass) throws IOException {
+            Stmt.Class declaration = loxClass.getDeclaration();
+            out.writeByte(CLASS);
+            register(loxClass);
+            pending.add(loxClass);
+            writeInt(index(declaration));
+            write(loxClass.getSuperclass());
+
+            List<LoxFunction> methods = new ArrayList<>(loxClass.getMethods().values());
+            writeInt(methods.size());
+            for (LoxFunction method : methods) {
+                register(method);
+                writeInt(methodIndex(declaration, method.getDeclaration()));
+                out.writeBoolean(method.isInitializer());
+                writeInt(method.getClosure().length);
+            }
+            pending.remove(loxClass);
+
+            for (LoxFunction method : methods) {
+                writeCells(method.getClosure());
+            }
+        }
+
+        private void writeFunction(LoxFunction function) throws IOException {
+            out.writeByte(FUNCTION);
+            register(function);
+            pending.add(function);
+            writeInt(index(function.getDeclaration()));
+            out.writeBoolean(function.isInitializer());
+            write(function.getSuperclass());
+            write(function.getReceiver());
+            writeInt(function.getClosure().length);
+            pending.remove(function);
+            writeCells(function.getClosure());
+        }
+
+        private void writeCells(Cell[] cells) throws IOException {
+            for (Cell cell : cells) {
+                if (!writeRef(cell)) {
+                    out.writeByte(CELL);
+                    register(cell);
+                    write(interpreter.readable(cell).value);
+                }
+            }
+        }
+
+        // where declaration is in the program part, added there when it isn't yet
+        private int index(Stmt declaration) throws IOException {
+            Integer index = indexes.get(declaration);
+            if (index == null) {
+                checkCompiled(declaration);
+                index = declarations.size();
+                declarations.add(declaration);
+                indexes.put(declaration, index);
+            }
+            return index;
+        }
+
+        private static int methodIndex(Stmt.Class declaration, Stmt.Function method) {
+            for (int i = 0; i < declaration.methods.length; i++) {
+                if (declaration.methods[i] == method) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Method '" + method.name + "' isn't declared by " + declaration.name);
+        }
+
+        private static void checkCompiled(Stmt declaration) throws IOException {
+            Stmt.Function[] functions = declaration instanceof Stmt.Class
+                    ? ((Stmt.Class) declaration).methods : new Stmt.Function[]{(Stmt.Function) declaration};
+            for (Stmt.Function function : functions) {
+                if (function.lazy != null) {
+                    throw new IOException("Can't save function '" + function.name + "' of a lazily parsed program.");
+                }
+            }
+        }
+
+        // the name of the global holding a native function
+        private String nativeName(Object value) throws IOException {
+            Cell[] globals = interpreter.globals;
+            for (int slot = 0; slot < globals.length; slot++) {
+                if (globals[slot] != null && interpreter.readable(globals[slot]).value == value) {
+                    return interpreter.getGlobalSlots().name(slot);
+                }
+            }
+            throw new IOException("Can't save native function '" + value + "', no global holds it.");
+        }
+
+        // through a table like ProgramWriter.writeString, every field name is written once
+        private void writeString(String string) throws IOException {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeInt(index);
+                return ;
+            }
+            writeInt(strings.size());
+            strings.put(string, strings.size());
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(utf8.length);
+            out.write(utf8);
+        }
+
+        // a varint, like ProgramWriter.writeInt
+        private void writeInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    private static class Reader {
+        private final Interpreter interpreter;
+        private final List<Stmt> declarations;
+        private final DataInputStream in;
+
+        // by number, null while one is read but not created yet
+        private final List<Object> objects = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(Interpreter interpreter, List<Stmt> declarations, DataInputStream in) {
+            this.interpreter = interpreter;
+            this.declarations = declarations;
+            this.in = in;
+        }
+
+        // all values are read before the first global is defined, natives are the interpreter's own
+        void readGlobals() throws IOException {
+            int count = readInt();
+            Map<String, Object> values = new LinkedHashMap<>();
+            Map<String, Boolean> constants = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                constants.put(name, in.readBoolean());
+                values.put(name, read());
+            }
+            for (Map.Entry<String, Object> global : values.entrySet()) {
+                interpreter.defineGlobal(interpreter.getGlobalSlots().slot(global.getKey()), global.getValue(),
+                        constants.get(global.getKey()));
+            }
+        }
+
+        private Object read() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case NUMBER:
+                    return in.readDouble();
+                case STRING:
+                    return readString();
+                case REF:
+                    return ref(readInt());
+                case INSTANCE:
+                    return readInstance();
+                case CLASS:
+                    return readClass();
+                case FUNCTION:
+                    return readFunction();
+                case NATIVE: {
+                    String name = readString();
+                    Object value = interpreter.getGlobal(name);
+                    if (!(value instanceof LoxCallable)) {
+                        throw new IOException("No native function '" + name + "' to load.");
+                    }
+                    return value;
+                }
+                case SUPER_METHODS: {
+                    LoxFunction[] methods = new LoxFunction[readInt()];
+                    for (int i = 0; i < methods.length; i++) {
+                        methods[i] = (LoxFunction) read();
+                    }
+                    return methods;
+                }
+                default:
+                    throw new IOException("Corrupt snapshot.");
+            }
+        }
+
+        private Object ref(int id) throws IOException {
+            Object object = objects.get(id);
+            if (object == null) {
+                throw new IOException("Corrupt snapshot.");
+            }
+            return object;
+        }
+
+        private int reserve() {
+            objects.add(null);
+            return objects.size() - 1;
+        }
+
+        private LoxInstance readInstance() throws IOException {
+            int id = reserve();
+            LoxInstance instance = new LoxInstance((LoxClass) read(), interpreter.heap());
+            objects.set(id, instance);
+            int count = readInt();
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                instance.set(name, read());
+            }
+            return instance;
+        }
+
+        // like Interpreter.visitClassStmt
+        private LoxClass readClass() throws IOException {
+            int id = reserve();
+            Stmt.Class declaration = (Stmt.Class) declarations.get(readInt());
+            LoxClass superclass = (LoxClass) read();
+
+            LoxFunction[] methods = new LoxFunction[readInt()];
+            Map<String, LoxFunction> byName = new HashMap<>();
+            for (int i = 0; i < methods.length; i++) {
+                int method = reserve();
+                Stmt.Function function = declaration.methods[readInt()];
+                boolean isInitializer = in.readBoolean();
+                methods[i] = new LoxFunction(function, new Cell[readInt()], superclass, isInitializer);
+                objects.set(method, methods[i]);
+                byName.put(function.name, methods[i]);
+            }
+            String[] fields = new String[0];
+            for (Stmt.Function function : declaration.methods) {
+                if (function.name.equals("init")) {
+                    fields = function.fields;
+                }
+            }
+            LoxClass loxClass = new LoxClass(declaration.name, superclass, byName, fields, declaration);
+            objects.set(id, loxClass);
+
+            for (LoxFunction method : methods) {
+                readCells(method.getClosure());
+            }
+            return loxClass;
+        }
+
+        private LoxFunction readFunction() throws IOException {
+            int id = reserve();
+            Stmt.Function declaration = (Stmt.Function) declarations.get(readInt());
+            boolean isInitializer = in.readBoolean();
+            LoxClass superclass = (LoxClass) read();
+            LoxInstance receiver = (LoxInstance) read();
+            LoxFunction function = new LoxFunction(declaration, new Cell[readInt()], superclass, isInitializer);
+            if (receiver != null) {
+                function = function.bind(receiver);
+            }
+            objects.set(id, function);
+            readCells(function.getClosure());
+            return function;
+        }
+
+        // into the closure array of a function created before
+        private void readCells(Cell[] cells) throws IOException {
+            for (int i = 0; i < cells.length; i++) {
+                int tag = in.readUnsignedByte();
+                if (tag == REF) {
+                    cells[i] = (Cell) ref(readInt());
+                } else if (tag == CELL) {
+                    int id = reserve();
+                    cells[i] = new Cell(null, interpreter.heap());
+                    objects.set(id, cells[i]);
+                    cells[i].value = read();
+                } else {
+                    throw new IOException("Corrupt snapshot.");
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            int index = readInt();
+            if (index < strings.size()) {
+                return strings.get(index);
+            }
+            int length = readInt();
+            if (length < 0 || length > in.available()) {
+                throw new EOFException();
+            }
+            byte[] utf8 = new byte[length];
+            in.readFully(utf8);
+            String string = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private int readInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
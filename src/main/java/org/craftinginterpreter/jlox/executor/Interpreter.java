@@ -1,5 +1,6 @@
 package org.craftinginterpreter.jlox.executor;
 
+import org.craftinginterpreter.jlox.ErrorReporter;
 import org.craftinginterpreter.jlox.Lox;
 import org.craftinginterpreter.jlox.helper.LoxCallable;
 import org.craftinginterpreter.jlox.ast.Expr;
@@ -8,24 +9,95 @@ import org.craftinginterpreter.jlox.function.LoxFunction;
 import org.craftinginterpreter.jlox.function.Return;
 import org.craftinginterpreter.jlox.oop.LoxClass;
 import org.craftinginterpreter.jlox.oop.LoxInstance;
-import org.craftinginterpreter.jlox.scanner.Token;
+import org.craftinginterpreter.jlox.optimizer.Superinstructions;
 import org.craftinginterpreter.jlox.scanner.TokenType;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    final Environment globals = new Environment();
+    // -Djlox.dispatch=visitor goes back to accept() instead of switching on node kinds, for comparison
+    // (see tool/DispatchBenchmark). Being a constant, the JIT drops the branch not taken.
+    private static final boolean VISITOR_DISPATCH = "visitor".equals(System.getProperty("jlox.dispatch"));
 
-    Environment environment = globals;
+    // globals by their number in globalSlots, null while undefined. Programs run must be resolved with
+    // the same GlobalSlots.
+    Cell[] globals = new Cell[64];
+    private final GlobalSlots globalSlots;
 
-    final Map<Expr, Integer> locals = new HashMap<>();
+    private static final Cell[] NO_CELLS = new Cell[0];
+
+    // in the slot of a local whose instance was replaced by its fields (see Stmt.Scalar)
+    private static final Object SCALAR = new Object();
+
+    // the free variables of the closure running now, null in top-level code (see Resolver.UPVALUE)
+    private Cell[] upvalues = null;
+
+    // all other locals: one frame of slots per call, from fp up to sp (see Resolver.FRAME and CELL)
+    private Object[] stack = new Object[256];
+    private int fp = 0;
+    private int sp = 0;
+
+    // Lox calls deeper than this fail with a RuntimeError instead of running out of Java stack,
+    // -Djlox.maxdepth=n changes it
+    private static final int MAX_DEPTH = Integer.getInteger("jlox.maxdepth", 100000);
+    // the values of a call are in stack, but evaluating it still nests Java calls. So that the thread's
+    // stack size doesn't decide how deep Lox code can recurse, interpret() runs the program on a thread with
+    // a stack of SEGMENT_STACK bytes, and the body of every SEGMENT_CALLS-th nested call runs on another
+    // one, while the thread that started it waits. The threads are kept in SEGMENTS and reused.
+    private static final int SEGMENT_CALLS = 10000;
+    static final long SEGMENT_STACK = 256L << 20;
+    private static final AtomicInteger segmentThreads = new AtomicInteger();
+    // daemons, idle ones end after a minute
+    private static final ExecutorService SEGMENTS = Executors.newCachedThreadPool(segment -> {
+        Thread thread = new Thread(null, segment, "jlox-stack-" + segmentThreads.incrementAndGet(), SEGMENT_STACK);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int depth = 0;
+    private int segmentDepth = 0; // depth of the call whose body started the current segment
+    private int segmentLine = 0; // line of the first function called on the current segment
+
+    // why the host stopped the program, set from any thread and checked by every call and loop iteration
+    private volatile String stopped = null;
+
+    // how often each superinstruction ran, by its index in Superinstructions
+    private final long[] fusedCounts = new long[Superinstructions.NAMES.length];
+
+    private final PrintStream out; // where print goes
+
+    // Copy-on-write once the interpreter forked (see fork()): the instances and Cells created since its
+    // last fork are owned by heap, all others are shared and copied before they are written. copies maps
+    // a shared one to the copy this interpreter writes and reads instead. null while it never forked,
+    // then everything is written in place.
+    private Object heap = new Object();
+    private Map<Object, Object> copies = null;
 
     public Interpreter() {
-        globals.define("clock", new LoxCallable() {
+        this(System.out);
+    }
+
+    public Interpreter(PrintStream out) {
+        this(out, GlobalSlots.DEFAULT);
+    }
+
+    public Interpreter(PrintStream out, GlobalSlots globalSlots) {
+        this.out = out;
+        this.globalSlots = globalSlots;
+        defineGlobal("clock", new LoxCallable() {
             @Override
             public int arity() {
                 return 0;
@@ -43,36 +115,240 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
     }
 
+    // a child of the interpreter as it is now, with out for print
+    private Interpreter(Interpreter parent, PrintStream out) {
+        this.out = out;
+        this.globalSlots = parent.globalSlots;
+        this.globals = parent.globals.clone();
+        this.copies = new IdentityHashMap<>(parent.copies);
+    }
+
+    // A new interpreter that starts out with everything this one defined: the globals, and the classes,
+    // functions, closures and instances reachable from them, are shared instead of copied. From then on
+    // both copy what they share before writing to it, for themselves alone, so a fork never sees what
+    // the others write. Forking copies the globals array only; a shared instance or captured variable is
+    // copied once per interpreter, when it first writes to it. Not while this interpreter is running;
+    // forks may run on other threads, they only read what they share.
+    public Interpreter fork(PrintStream out) {
+        heap = new Object(); // what exists now is shared from here on, by this interpreter too
+        if (copies == null) {
+            copies = new IdentityHashMap<>();
+        }
+        return new Interpreter(this, out);
+    }
+
+    public Interpreter fork() {
+        return fork(out);
+    }
+
+    public GlobalSlots getGlobalSlots() {
+        return globalSlots;
+    }
+
+    // the owner of the instances and Cells created now, see fork()
+    public Object heap() {
+        return heap;
+    }
+
+    Cell readable(Cell cell) {
+        if (copies == null || cell.owner == heap) {
+            return cell;
+        }
+        Cell copy = (Cell) copies.get(cell);
+        return copy == null ? cell : copy;
+    }
+
+    private Cell writable(Cell cell) {
+        if (copies == null || cell.owner == heap) {
+            return cell;
+        }
+        Cell copy = (Cell) copies.get(cell);
+        if (copy == null || copy.owner != heap) {
+            // the copy may be shared itself, from before a later fork
+            copy = new Cell(copy == null ? cell.value : copy.value, cell.constant, heap);
+            copies.put(cell, copy);
+        }
+        return copy;
+    }
+
+    LoxInstance readable(LoxInstance instance) {
+        if (copies == null || instance.getOwner() == heap) {
+            return instance;
+        }
+        LoxInstance copy = (LoxInstance) copies.get(instance);
+        return copy == null ? instance : copy;
+    }
+
+    private LoxInstance writable(LoxInstance instance) {
+        if (copies == null || instance.getOwner() == heap) {
+            return instance;
+        }
+        LoxInstance copy = (LoxInstance) copies.get(instance);
+        if (copy == null || copy.getOwner() != heap) {
+            copy = (copy == null ? instance : copy).copy(heap);
+            copies.put(instance, copy);
+        }
+        return copy;
+    }
+
+    // ends the program running now, or the next one, with a Stopped at its next call or loop iteration
+    public void stop(String reason) {
+        stopped = reason;
+    }
+
+    private void checkStopped() {
+        if (stopped != null) {
+            throw new Stopped(stopped);
+        }
+    }
+
     public void interpret(List<Stmt> stmtList) {
         try {
-            for (Stmt stmt: stmtList) {
-                execute(stmt);
-            }
+            onStackSegment(() -> {
+                for (Stmt stmt: stmtList) {
+                    execute(stmt);
+                }
+            });
         } catch (RuntimeError runtimeError) {
             Lox.runtimeError(runtimeError);
         }
     }
 
     private void execute(Stmt stmt) {
-        stmt.accept(this);
+        if (VISITOR_DISPATCH) {
+            stmt.accept(this);
+        } else {
+            dispatch(stmt);
+        }
     }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // the declaration itself, or the compiled one if its body was skipped by a lazy Parser. Errors in the
+    // body are reported as it is compiled.
+    public static Stmt.Function compiled(Stmt.Function declaration) {
+        if (declaration.lazy == null) {
+            return declaration;
+        }
+        Stmt.Function compiled = declaration.lazy.getCompiled();
+        if (compiled == null) {
+            compiled = Resolver.compile(declaration);
+        }
+        if (compiled == null) {
+            throw new RuntimeError(declaration.line, "Can't compile function '" + declaration.name + "'.");
+        }
+        return compiled;
+    }
+
+    // push a frame for the call, bind the receiver of a method, the superclass methods it calls (see
+    // LoxClass.superMethods) and the arguments, and run the body with the Cells the closure captured
+    public void executeFunction(Stmt.Function declaration, Cell[] closure, LoxInstance receiver,
+                                LoxFunction[] superMethods, List<Object> arguments) {
+        declaration = compiled(declaration);
+        checkStopped();
+        if (depth >= MAX_DEPTH) {
+            throw new RuntimeError(declaration.line, "Stack overflow.");
+        }
+
+        Cell[] previousUpvalues = upvalues;
+        int previousFp = fp;
+        int previousSp = sp;
+        fp = sp;
+        sp = fp + declaration.frameSize;
+        if (sp > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(sp, stack.length * 2));
+        }
+        try {
+            upvalues = closure;
+            if (receiver != null) {
+                define(declaration.thisStorage, declaration.thisSlot, receiver);
+                if (superMethods != null) {
+                    define(declaration.superStorage, declaration.superSlot, superMethods);
+                }
+            }
+            for (int i = 0; i < declaration.params.length; i++) {
+                define(declaration.paramStorages[i], declaration.paramSlots[i], arguments.get(i));
+            }
+            if (depth == segmentDepth) {
+                segmentLine = declaration.line;
+            }
+            depth++;
+            if (depth - segmentDepth >= SEGMENT_CALLS) {
+                Stmt[] body = declaration.body;
+                onStackSegment(() -> executeBlock(body, body.length));
+            } else {
+                executeBlock(declaration.body, declaration.body.length);
+            }
+        } finally {
+            depth--;
+            upvalues = previousUpvalues;
+            fp = previousFp;
+            sp = previousSp;
+        }
     }
 
-    public void executeBlock(List<Stmt> stmts, Environment environment) {
-        Environment previous = this.environment; // record the previous env
+    // runs code on a thread of SEGMENTS and rethrows what it threw, a Return included. Only one thread runs
+    // at a time, handing the code over and waiting for it make the other's writes to the interpreter
+    // visible. Errors are reported to whoever gets the errors of this thread.
+    private void onStackSegment(Runnable code) {
+        int previousSegmentDepth = segmentDepth;
+        int previousSegmentLine = segmentLine;
+        segmentDepth = depth;
+        ErrorReporter errors = Lox.reporter();
+        Future<?> segment = SEGMENTS.submit(() -> Lox.reportingTo(errors, () -> {
+            try {
+                code.run();
+            } catch (StackOverflowError error) {
+                // a segment still wasn't enough, e.g. for an expression nested thousands of times
+                throw new RuntimeError(segmentLine, "Stack overflow.");
+            }
+            return null;
+        }));
+
+        boolean interrupted = false;
         try {
-            this.environment = environment;
-            for (Stmt stmt: stmts) {
-                execute(stmt);
+            while (true) {
+                try {
+                    segment.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the Lox code can't be stopped halfway, wait for it and keep the interrupt
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw (Error) e.getCause();
+                }
             }
         } finally {
-            this.environment = previous;
+            segmentDepth = previousSegmentDepth;
+            segmentLine = previousSegmentLine;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
+    // runs the first count statements only
+    private void executeBlock(Stmt[] stmts, int count) {
+        for (int i = 0; i < count; i++) {
+            execute(stmts[i]);
+        }
+    }
+
+    // the Cells a closure of declaration captures: ones in the current frame or ones the running
+    // closure captured itself
+    private Cell[] capture(Stmt.Function declaration) {
+        if (declaration.captureSlots == null || declaration.captureSlots.length == 0) {
+            return NO_CELLS;
+        }
+        Cell[] cells = new Cell[declaration.captureSlots.length];
+        for (int i = 0; i < cells.length; i++) {
+            int slot = declaration.captureSlots[i];
+            cells[i] = declaration.capturesLocal[i] ? (Cell) stack[fp + slot] : upvalues[slot];
+        }
+        return cells;
+    }
+
     private String stringify(Object object) {
         if (object == null) {
             return "nil";
@@ -89,7 +365,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private Object evaluate(Expr expr) {
-        return expr.accept(this);
+        if (VISITOR_DISPATCH) {
+            return expr.accept(this);
+        }
+        return dispatch(expr);
     }
 
     private boolean isTruthy(Object object) {
@@ -106,42 +385,40 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    private void checkNumberOperand(int line, Object operand) {
         if (operand instanceof Double) {
             return ;
         }
-        throw new RuntimeError(operator, "Operand must be a number");
+        throw new RuntimeError(line, "Operand must be a number");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private void checkNumberOperands(int line, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
             return ;
         }
-        throw new RuntimeError(operator, "Operands must be numbers");
+        throw new RuntimeError(line, "Operands must be numbers");
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
-        } else {
-            globals.assign(expr.name, value);
-        }
+        store(expr, value);
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.numeric) {
+            return numericBinary(expr);
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.getTokenType()) {
+        switch (expr.operator) {
 
             //arithmetic
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.line, left, right);
                 return (double)left - (double)right;
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
@@ -150,25 +427,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 if (left instanceof String && right instanceof String ) {
                     return (String)left + (String)right;
                 }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings");
+                throw new RuntimeError(expr.line, "Operands must be two numbers or two strings");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.line, left, right);
                 return (double)left / (double)right;
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.line, left, right);
                 return (double)left * (double)right;
             // comparison
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.line, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.line, left, right);
                 return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.line, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(expr.line, left, right);
                 return (double)left <= (double)right;
             case BANG_EQUAL:
                 return !isEqual(left, right);
@@ -179,69 +456,186 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // TypeInference found both operands to be numbers, no checks needed
+    private Object numericBinary(Expr.Binary expr) {
+        double left = number(expr.left);
+        double right = number(expr.right);
+        switch (expr.operator) {
+            case PLUS:
+                return left + right;
+            case MINUS:
+                return left - right;
+            case STAR:
+                return left * right;
+            case SLASH:
+                return left / right;
+            default:
+                return compare(expr.operator, left, right);
+        }
+    }
+
+    // the value of an expression TypeInference found to always be a number. The numeric Binary and Unary
+    // nodes in it are computed without boxing the values in between.
+    private double number(Expr expr) {
+        switch (expr.kind) {
+            case Expr.BINARY: {
+                Expr.Binary binary = (Expr.Binary) expr;
+                if (binary.numeric) {
+                    switch (binary.operator) {
+                        case PLUS:
+                            return number(binary.left) + number(binary.right);
+                        case MINUS:
+                            return number(binary.left) - number(binary.right);
+                        case STAR:
+                            return number(binary.left) * number(binary.right);
+                        case SLASH:
+                            return number(binary.left) / number(binary.right);
+                    }
+                }
+                break;
+            }
+            case Expr.UNARY:
+                if (((Expr.Unary) expr).numeric) {
+                    return -number(((Expr.Unary) expr).right);
+                }
+                break;
+            case Expr.GROUPING:
+                return number(((Expr.Grouping) expr).expression);
+            case Expr.LITERAL:
+                return (double) ((Expr.Literal) expr).value;
+            case Expr.VAR:
+                if (((Expr.Var) expr).storage == Resolver.FRAME) {
+                    return (double) stack[fp + ((Expr.Var) expr).slot];
+                }
+                if (((Expr.Var) expr).storage == Resolver.CONSTANT) {
+                    return (double) ((Expr.Var) expr).constant;
+                }
+                break;
+        }
+        return (double) evaluate(expr);
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        if (expr.callee.kind == Expr.SUPER) {
+            return callSuper(expr, (Expr.Super) expr.callee);
+        }
+        return call(expr, evaluate(expr.callee));
+    }
 
+    private Object call(Expr.Call expr, Object callee) {
         List<Object> argumentValue = new ArrayList<>();
         for (Expr argument: expr.arguments) {
             argumentValue.add(evaluate(argument));
         }
 
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes");
+            throw new RuntimeError(expr.line, "Can only call functions and classes");
         }
 
         LoxCallable function = (LoxCallable) callee;
         if (argumentValue.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " +
+            throw new RuntimeError(expr.line, "Expected " + function.arity() + " arguments but got " +
                     argumentValue.size() + ".");
         }
 
         return function.call(this, argumentValue);
     }
 
+    // super.name(...) invokes the method on 'this' directly, without binding it
+    private Object callSuper(Expr.Call expr, Expr.Super callee) {
+        LoxFunction method = superMethod(callee);
+        LoxInstance loxInstance = (LoxInstance) local(callee.thisStorage, callee.thisSlot);
+
+        List<Object> argumentValue = new ArrayList<>(expr.arguments.length);
+        for (Expr argument: expr.arguments) {
+            argumentValue.add(evaluate(argument));
+        }
+
+        if (argumentValue.size() != method.arity()) {
+            throw new RuntimeError(expr.line, "Expected " + method.arity() + " arguments but got " +
+                    argumentValue.size() + ".");
+        }
+        return method.invoke(this, loxInstance, argumentValue);
+    }
+
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
+        if (object == SCALAR) {
+            return stack[fp + expr.fieldSlot];
+        }
         if (object instanceof LoxInstance) {
-            return  ((LoxInstance)object).get(expr.name);
+            LoxInstance instance = (LoxInstance) object;
+            return readable(instance).get(expr.name, expr.line, instance);
         }
 
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+        throw new RuntimeError(expr.line, "Only instances have properties.");
     }
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
+        if (object == SCALAR) {
+            Object value = evaluate(expr.value);
+            stack[fp + expr.fieldSlot] = value;
+            return value;
+        }
 
         if (!(object instanceof LoxInstance)) {
-            throw new RuntimeError(expr.name, "Only instances have fields");
+            throw new RuntimeError(expr.line, "Only instances have fields");
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        writable((LoxInstance) object).set(expr.name, value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance loxInstance = (LoxInstance) environment.getAt(distance - 1, "this");
+        LoxInstance loxInstance = (LoxInstance) local(expr.thisStorage, expr.thisSlot);
+        return superMethod(expr).bind(loxInstance);
+    }
 
-        LoxFunction method = superclass.findMethod(expr.method.getLexeme());
+    // the method super.name refers to, found when the method containing it was first called
+    private LoxFunction superMethod(Expr.Super expr) {
+        LoxFunction[] superMethods = (LoxFunction[]) local(expr.storage, expr.slot);
+        LoxFunction method = superMethods[expr.index];
 
         if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property" + expr.method.getLexeme() + ".");
+            throw new RuntimeError(expr.line, "undefined property '" + expr.method + "'.");
         }
-
-        return method.bind(loxInstance);
+        return method;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVar(expr.keyword, expr);
+        return local(expr.storage, expr.slot);
+    }
+
+    private Object local(int storage, int slot) {
+        switch (storage) {
+            case Resolver.FRAME:
+                return stack[fp + slot];
+            case Resolver.CELL:
+                return readable((Cell) stack[fp + slot]).value;
+            default:
+                return readable(upvalues[slot]).value;
+        }
+    }
+
+    private void assign(int storage, int slot, Object value) {
+        switch (storage) {
+            case Resolver.FRAME:
+                stack[fp + slot] = value;
+                break;
+            case Resolver.CELL:
+                writable((Cell) stack[fp + slot]).value = value;
+                break;
+            default:
+                writable(upvalues[slot]).value = value;
+                break;
+        }
     }
 
     @Override
@@ -257,7 +651,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
-        if (expr.operator.getTokenType() == TokenType.OR) {
+        if (expr.operator == TokenType.OR) {
             if (isTruthy(left)) {
                 return left;
             }
@@ -271,12 +665,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.numeric) {
+            return -number(expr.right);
+        }
         Object right = evaluate(expr.right);
-        switch (expr.operator.getTokenType()) {
+        switch (expr.operator) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(expr.line, right);
                 return -(double)right;
         }
         return null;
@@ -284,21 +681,118 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVarExpr(Expr.Var expr) {
-        return lookUpVar(expr.name, expr);
+        if (expr.storage == Resolver.FRAME) {
+            return stack[fp + expr.slot];
+        }
+        if (expr.storage == Resolver.GLOBAL) {
+            return global(expr.slot, expr.name, expr.line).value;
+        }
+        if (expr.storage == Resolver.CONSTANT) {
+            return expr.constant;
+        }
+        return local(expr.storage, expr.slot);
+    }
+
+    // a variable anywhere, for superinstructions that work on a resolved location
+    private Object load(int storage, int slot, String name, int line) {
+        if (storage == Resolver.GLOBAL) {
+            return global(slot, name, line).value;
+        }
+        return local(storage, slot);
+    }
+
+    private void store(Expr.Assign target, Object value) {
+        if (target.storage == Resolver.GLOBAL) {
+            Cell cell = global(target.slot, target.name, target.line);
+            if (cell.constant) {
+                // declared by an earlier program, e.g. a line before in the prompt, the Resolver didn't see it
+                throw new RuntimeError(target.line, "Can't assign to constant '" + target.name + "'.");
+            }
+            if (copies != null && cell.owner != heap) {
+                // shared with a fork, nothing but the globals array refers to it
+                globals[target.slot] = new Cell(value, false, heap);
+            } else {
+                cell.value = value;
+            }
+        } else {
+            assign(target.storage, target.slot, value);
+        }
+    }
+
+    private Cell global(int slot, String name, int line) {
+        Cell cell = slot < globals.length ? globals[slot] : null;
+        if (cell == null) {
+            throw new RuntimeError(line, "Undefined variable '" + name + "'.");
+        }
+        return cell;
+    }
+
+    // the value of a global, null if it isn't defined
+    public Object getGlobal(String name) {
+        int slot = globalSlots.slot(name);
+        Cell cell = slot < globals.length ? globals[slot] : null;
+        return cell == null ? null : cell.value;
+    }
+
+    public void defineGlobal(String name, Object value) {
+        defineGlobal(globalSlots.slot(name), value);
+    }
+
+    private void defineGlobal(int slot, Object value) {
+        defineGlobal(slot, value, false);
     }
 
-    private Object lookUpVar(Token name, Expr expr) {
-        Integer dis = locals.get(expr);
-        if (dis != null) {
-            return environment.getAt(dis, name.getLexeme());
+    // a const gets a Cell of its own that refuses assignments, declaring the name again replaces it
+    void defineGlobal(int slot, Object value, boolean constant) {
+        if (slot >= globals.length) {
+            globals = Arrays.copyOf(globals, Math.max(slot + 1, globals.length * 2));
+        }
+        if (constant || globals[slot] == null || globals[slot].constant
+                || (copies != null && globals[slot].owner != heap)) {
+            globals[slot] = new Cell(value, constant, heap);
+        } else {
+            globals[slot].value = value;
+        }
+    }
+
+    // a declaration of a captured local makes a new Cell, so closures created before keep the old one
+    private void define(int storage, int slot, Object value) {
+        if (storage == Resolver.FRAME) {
+            stack[fp + slot] = value;
+        } else if (storage == Resolver.CELL) {
+            stack[fp + slot] = new Cell(value, heap);
+        } else {
+            defineGlobal(slot, value);
+        }
+    }
+
+    // after define(), for declarations whose value closes over the variable itself
+    private void initialize(int storage, int slot, Object value) {
+        if (storage == Resolver.GLOBAL) {
+            defineGlobal(slot, value);
         } else {
-            return globals.get(name);
+            assign(storage, slot, value);
         }
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (fp + stmt.frameSize <= sp) {
+            executeBlock(stmt.statements, stmt.statements.length);
+            return null;
+        }
+
+        // a block in top-level code, no call frame has room for its locals
+        int previousSp = sp;
+        sp = fp + stmt.frameSize;
+        if (sp > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(sp, stack.length * 2));
+        }
+        try {
+            executeBlock(stmt.statements, stmt.statements.length);
+        } finally {
+            sp = previousSp;
+        }
         return null;
     }
 
@@ -308,29 +802,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
             if (!(superclass instanceof LoxClass)) {
-                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class");
+                throw new RuntimeError(stmt.superclass.line, "Superclass must be a class");
             }
         }
 
-        environment.define(stmt.name.getLexeme(), null);
-
-        if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
-        }
+        define(stmt.storage, stmt.slot, null);
 
         Map<String, LoxFunction> methods = new HashMap<>();
-        for (Stmt.Function function: stmt.method) {
-            LoxFunction method = new LoxFunction(function, environment, function.name.getLexeme().equals("init"));
-            methods.put(function.name.getLexeme(), method);
+        for (Stmt.Function function: stmt.methods) {
+            LoxFunction method = new LoxFunction(function, capture(function), (LoxClass) superclass,
+                    function.name.equals("init"));
+            methods.put(function.name, method);
         }
 
 
-        LoxClass loxclass = new LoxClass(stmt.name.getLexeme(), (LoxClass)superclass, methods);
-        if (superclass != null) {
-            environment = environment.enclosing;
+        String[] fields = new String[0];
+        for (Stmt.Function function: stmt.methods) {
+            if (function.name.equals("init")) {
+                fields = function.fields;
+            }
         }
-        environment.assign(stmt.name, loxclass);
+        LoxClass loxclass = new LoxClass(stmt.name, (LoxClass)superclass, methods, fields, stmt);
+        initialize(stmt.storage, stmt.slot, loxclass);
         return null;
     }
 
@@ -342,8 +835,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.getLexeme(), function);
+        define(stmt.storage, stmt.slot, null);
+        initialize(stmt.storage, stmt.slot, new LoxFunction(stmt, capture(stmt), null, false));
         return null;
     }
 
@@ -357,6 +850,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // modules are loaded and run by the ModuleLoader before the code importing them
+        return null;
+    }
+
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
@@ -369,7 +868,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -379,15 +878,180 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.getLexeme(), value);
+        if (stmt.constant && stmt.storage == Resolver.GLOBAL) {
+            defineGlobal(stmt.slot, value, true);
+        } else {
+            define(stmt.storage, stmt.slot, value);
+        }
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.counted && countedLoop(stmt)) {
+            return null;
+        }
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            checkStopped();
+        }
+        return null;
+    }
+
+    // a loop the Resolver found to count a frame slot by a constant step (see Resolver.markCountedLoop):
+    // the counter is kept as a double and only stored back for the body to read, the condition and the
+    // increment are not evaluated as expressions. false if the counter does not start as a number.
+    private boolean countedLoop(Stmt.While stmt) {
+        Expr.Binary condition = (Expr.Binary) stmt.condition;
+        Stmt.Block body = (Stmt.Block) stmt.body;
+        Expr.Assign increment = (Expr.Assign) ((Stmt.Expression) body.statements[1]).expression;
+        Expr.Binary step = (Expr.Binary) increment.value;
+        double delta = (double) ((Expr.Literal) step.right).value;
+        if (step.operator == TokenType.MINUS) {
+            delta = -delta;
+        }
+
+        int counter = fp + increment.slot;
+        if (!(stack[counter] instanceof Double)) {
+            return false;
+        }
+        double value = (double) stack[counter];
+        while (true) {
+            double limit;
+            if (condition.numeric) {
+                limit = number(condition.right);
+            } else {
+                Object bound = evaluate(condition.right);
+                checkNumberOperands(condition.line, value, bound);
+                limit = (double) bound;
+            }
+            if (!compare(condition.operator, value, limit)) {
+                return true;
+            }
+
+            executeBlock(body.statements, 1);
+            checkStopped();
+            value += delta;
+            stack[counter] = value;
+        }
+    }
+
+    // <, <=, > or >=
+    private static boolean compare(TokenType operator, double left, double right) {
+        switch (operator) {
+            case LESS:
+                return left < right;
+            case LESS_EQUAL:
+                return left <= right;
+            case GREATER:
+                return left > right;
+            default:
+                return left >= right;
+        }
+    }
+
+    public long[] getFusedCounts() {
+        return fusedCounts.clone();
+    }
+
+    // x = x + number: adds to a number in place, anything else goes the long way to fail like it would
+    @Override
+    public Void visitIncrementStmt(Stmt.Increment stmt) {
+        fusedCounts[Superinstructions.INCREMENT]++;
+        Expr.Assign target = stmt.target;
+        Object value = load(target.storage, target.slot, target.name, target.line);
+        if (value instanceof Double) {
+            store(target, (double) value + stmt.delta);
+        } else {
+            execute(stmt.original);
+        }
+        return null;
+    }
+
+    // x = x + expr, x is read before expr is evaluated like in the Binary
+    @Override
+    public Void visitAddAssignStmt(Stmt.AddAssign stmt) {
+        fusedCounts[Superinstructions.ADD_ASSIGN]++;
+        Expr.Assign target = stmt.target;
+        Object left = load(target.storage, target.slot, target.name, target.line);
+        if (((Expr.Binary) target.value).numeric) {
+            store(target, (double) left + number(stmt.operand));
+            return null;
+        }
+        Object right = evaluate(stmt.operand);
+        if (left instanceof Double && right instanceof Double) {
+            store(target, (double) left + (double) right);
+        } else if (left instanceof String && right instanceof String) {
+            store(target, (String) left + (String) right);
+        } else {
+            throw new RuntimeError(((Expr.Binary) target.value).line, "Operands must be two numbers or two strings");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCompareIfStmt(Stmt.CompareIf stmt) {
+        fusedCounts[Superinstructions.COMPARE_IF]++;
+        Expr.Binary condition = stmt.condition;
+        if (condition.numeric) {
+            if (compare(condition.operator, number(condition.left), number(condition.right))) {
+                execute(stmt.thenBranch);
+            } else if (stmt.elseBranch != null) {
+                execute(stmt.elseBranch);
+            }
+            return null;
+        }
+        Object left = evaluate(condition.left);
+        Object right = evaluate(condition.right);
+        boolean taken;
+        switch (condition.operator) {
+            case EQUAL_EQUAL:
+                taken = isEqual(left, right);
+                break;
+            case BANG_EQUAL:
+                taken = !isEqual(left, right);
+                break;
+            default:
+                checkNumberOperands(condition.line, left, right);
+                taken = compare(condition.operator, (double) left, (double) right);
+                break;
+        }
+
+        if (taken) {
+            execute(stmt.thenBranch);
+        } else if (stmt.elseBranch != null) {
+            execute(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnCallStmt(Stmt.ReturnCall stmt) {
+        fusedCounts[Superinstructions.RETURN_CALL]++;
+        throw new Return(visitCallExpr(stmt.call));
+    }
+
+    // var p = C(...) with the fields of the instance kept in the frame, as long as C still is the class
+    // ScalarReplacement saw. Otherwise the call is made and p gets what it returns.
+    @Override
+    public Void visitScalarStmt(Stmt.Scalar stmt) {
+        Expr.Call call = stmt.call;
+        Object callee = evaluate(call.callee);
+        if (!(callee instanceof LoxClass) || ((LoxClass) callee).getDeclaration() != stmt.type
+                || ((LoxClass) callee).arity() != call.arguments.length) {
+            define(stmt.original.storage, stmt.original.slot, call(call, callee));
+            return null;
+        }
+
+        Object[] arguments = new Object[call.arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(call.arguments[i]);
+        }
+        for (int i = 0; i < stmt.fieldSlots.length; i++) {
+            int argument = stmt.arguments[i];
+            stack[fp + stmt.fieldSlots[i]] = argument < 0 ? stmt.literals[i] : arguments[argument];
         }
+        stack[fp + stmt.original.slot] = SCALAR;
         return null;
     }
 }
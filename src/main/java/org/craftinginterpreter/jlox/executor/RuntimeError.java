@@ -1,16 +1,14 @@
 package org.craftinginterpreter.jlox.executor;
 
-import org.craftinginterpreter.jlox.scanner.Token;
-
 public class RuntimeError extends RuntimeException {
-    private final Token token;
+    private final int line;
 
-    public RuntimeError(Token token, String message) {
+    public RuntimeError(int line, String message) {
         super(message);
-        this.token = token;
+        this.line = line;
     }
 
-    public Token getToken() {
-        return token;
+    public int getLine() {
+        return line;
     }
 }
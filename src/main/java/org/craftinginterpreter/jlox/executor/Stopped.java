@@ -0,0 +1,8 @@
+package org.craftinginterpreter.jlox.executor;
+
+// thrown out of a running program once its host called Interpreter.stop
+public class Stopped extends RuntimeException {
+    public Stopped(String message) {
+        super(message);
+    }
+}
@@ -1,8 +1,9 @@
 package org.craftinginterpreter.jlox.function;
 
-import org.craftinginterpreter.jlox.executor.Environment;
+import org.craftinginterpreter.jlox.executor.Cell;
 import org.craftinginterpreter.jlox.executor.Interpreter;
 import org.craftinginterpreter.jlox.helper.LoxCallable;
+import org.craftinginterpreter.jlox.oop.LoxClass;
 import org.craftinginterpreter.jlox.oop.LoxInstance;
 import org.craftinginterpreter.jlox.ast.Stmt;
 
@@ -11,49 +12,95 @@ import java.util.List;
 public class LoxFunction implements LoxCallable {
 
     private final Stmt.Function declaration;
-    private final Environment closure;
+    private final Cell[] closure; // the free variables, see Resolver
+    private final LoxClass superclass; // 'super' of a method of a subclass
+    private final LoxInstance receiver; // 'this' of a method bound to an instance
+
+    // what 'super' is in the body: the superclass methods it calls, found on the first call. Forked
+    // interpreters share functions and may find them at the same time on different threads.
+    private volatile LoxFunction[] superMethods = null;
 
     private final boolean isInitializer;
-    public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    public LoxFunction(Stmt.Function declaration, Cell[] closure, LoxClass superclass, boolean isInitializer) {
+        this(declaration, closure, superclass, null, isInitializer);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Cell[] closure, LoxClass superclass, LoxInstance receiver,
+                        boolean isInitializer) {
         this.declaration = declaration;
         this.closure = closure;
+        this.superclass = superclass;
+        this.receiver = receiver;
         this.isInitializer = isInitializer;
     }
 
+    public Stmt.Function getDeclaration() {
+        return declaration;
+    }
+
+    public Cell[] getClosure() {
+        return closure;
+    }
+
+    public LoxClass getSuperclass() {
+        return superclass;
+    }
+
+    // null unless the function is a method bound to an instance
+    public LoxInstance getReceiver() {
+        return receiver;
+    }
+
+    public boolean isInitializer() {
+        return isInitializer;
+    }
+
     @Override
     public int arity() {
-        return declaration.params.size();
+        return declaration.params.length;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).getLexeme(), arguments.get(i));
-        }
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    // calls a method on an instance without binding it first
+    public Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeFunction(declaration, closure, receiver, superMethods(), arguments);
         } catch (Return returnValue) {
             if (isInitializer) {
-                return closure.getAt(0, "this");
+                return receiver;
             }
             return returnValue.value;
         }
 
         if (isInitializer) {
-            return closure.getAt(0, "this");
+            return receiver;
         }
         return null;
     }
 
+    // null if the function is not a method of a subclass
+    private LoxFunction[] superMethods() {
+        if (superMethods == null && superclass != null) {
+            superMethods = superclass.superMethods(Interpreter.compiled(declaration).superMethods);
+        }
+        return superMethods;
+    }
+
     public LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        LoxFunction bound = new LoxFunction(declaration, closure, superclass, instance, isInitializer);
+        if (declaration.lazy == null || declaration.lazy.getCompiled() != null) {
+            // a lazy body is only compiled when it is called
+            bound.superMethods = superMethods();
+        }
+        return bound;
     }
 
     @Override
     public String toString() {
-        return "<fn " + declaration.name.getLexeme() + ">";
+        return "<fn " + declaration.name + ">";
     }
 }
@@ -0,0 +1,200 @@
+package org.craftinginterpreter.jlox.incremental;
+
+import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.scanner.TokenBuffer;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A source buffer kept as a list of parsed and resolved top-level declarations. An edit only re-lexes
+// and re-parses from the declaration around it until the new parse lines up with an old declaration
+// boundary behind the edit, everything else (AST and resolution) is reused as is.
+// Top-level code resolves against an empty scope stack, so each declaration resolves independently.
+// Nodes hold plain line numbers. An edit that adds or removes lines only moves the line of each
+// declaration behind it, one int, and adds to what its nodes are behind by; a LineShifter moves the
+// nodes when getStatements() hands them out, once for any number of edits.
+// Globals are numbered in a GlobalSlots of the document's own, which only grows, by every name typed on
+// the way to the one meant. Once it numbered COMPACT_SLACK more than twice the names it had after the last
+// full parse, the whole document is parsed again with a new one, so it stays proportional to the source.
+// Run the statements on an Interpreter made with getGlobalSlots() after the last edit.
+public class Document {
+    private static final int COMPACT_SLACK = 256;
+
+    private static class Chunk {
+        int start; // offset of the first token
+        int end; // offset just past the last token
+        int lookahead; // offset just past the token after it, the parser peeks at that one (e.g. for 'else')
+        int line; // line of the first token
+        int unshifted = 0; // lines to add to the nodes of stmt, they lag behind line by that
+        final int endLine; // line of the last token, relative to line
+        final Stmt stmt; // null if the declaration has a syntax error, resolved otherwise
+
+        Chunk(int start, int end, int lookahead, int line, int endLine, Stmt stmt) {
+            this.start = start;
+            this.end = end;
+            this.lookahead = lookahead;
+            this.line = line;
+            this.endLine = endLine;
+            this.stmt = stmt;
+        }
+    }
+
+    private String source;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private int reparsed = 0;
+    private GlobalSlots globalSlots;
+    private int compactedSlots; // names globalSlots had after the last full parse
+
+    public Document(String source) {
+        this.source = source;
+        parseAll();
+    }
+
+    private void parseAll() {
+        globalSlots = new GlobalSlots();
+        chunks.clear();
+        reparse(0, 0);
+        compactedSlots = globalSlots.size();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    // replace length chars at offset with text
+    public void edit(int offset, int length, String text) {
+        String removed = source.substring(offset, offset + length);
+        source = new StringBuilder(source.length() - length + text.length())
+                .append(source, 0, offset).append(text).append(source, offset + length, source.length())
+                .toString();
+        int delta = text.length() - length;
+        int lineDelta = countLines(text) - countLines(removed);
+
+        // declarations whose text and lookahead end before the edit are untouched
+        int keep = 0;
+        while (keep < chunks.size() && chunks.get(keep).lookahead < offset) {
+            keep++;
+        }
+
+        // declarations that start behind the edit can be reused once the reparse reaches them
+        int resume = keep;
+        while (resume < chunks.size() && chunks.get(resume).start < offset + length) {
+            resume++;
+        }
+        for (int i = resume; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            chunk.start += delta;
+            chunk.end += delta;
+            chunk.lookahead += delta;
+        }
+
+        int reused = reparse(keep, resume);
+        if (lineDelta != 0) {
+            for (int i = reused; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                chunk.line += lineDelta;
+                chunk.unshifted += lineDelta;
+            }
+        }
+        if (globalSlots.size() > 2 * compactedSlots + COMPACT_SLACK) {
+            parseAll();
+        }
+    }
+
+    // re-lex and re-parse after chunk keep - 1, stopping at the first reusable chunk from resume on.
+    // Returns the index of the first reused chunk.
+    private int reparse(int keep, int resume) {
+        int from = 0;
+        int line = 1;
+        if (keep > 0) {
+            Chunk last = chunks.get(keep - 1);
+            from = last.end;
+            line = last.line + last.endLine;
+        }
+
+        Scanner scanner = new Scanner(source, from, line);
+        TokenBuffer tokens = scanner.tokenBuffer();
+        Parser parser = new Parser(scanner);
+
+        List<Chunk> fresh = new ArrayList<>();
+        int next = resume;
+        boolean linedUp = false;
+        while (parser.hasNext()) {
+            int first = parser.position();
+            int start = tokens.offset(first);
+            while (next < chunks.size() && chunks.get(next).start < start) {
+                next++;
+            }
+            if (next < chunks.size() && chunks.get(next).start == start) {
+                // same text from here on, so the old parse is still valid
+                linedUp = true;
+                break;
+            }
+
+            int firstLine = tokens.line(first);
+            Stmt stmt = parser.next();
+            int last = parser.position() - 1;
+
+            if (stmt != null) {
+                new Resolver(globalSlots).resolve(Collections.singletonList(stmt));
+            }
+            int peeked = parser.position();
+            fresh.add(new Chunk(start, tokens.offset(last) + tokens.length(last),
+                    tokens.offset(peeked) + tokens.length(peeked), firstLine,
+                    tokens.line(last) - firstLine, stmt));
+        }
+        if (!linedUp) {
+            next = chunks.size();
+        }
+
+        chunks.subList(keep, next).clear();
+        chunks.addAll(keep, fresh);
+        reparsed = fresh.size();
+        return keep + fresh.size();
+    }
+
+    private static int countLines(String text) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    // top-level declarations in source order, without the ones that failed to parse, their nodes on the
+    // lines they are on now
+    public List<Stmt> getStatements() {
+        List<Stmt> statements = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            if (chunk.stmt != null) {
+                if (chunk.unshifted != 0) {
+                    new LineShifter(chunk.unshifted).shift(chunk.stmt);
+                    chunk.unshifted = 0;
+                }
+                statements.add(chunk.stmt);
+            }
+        }
+        return statements;
+    }
+
+    // the numbers of the globals in getStatements(), replaced by an edit now and then
+    public GlobalSlots getGlobalSlots() {
+        return globalSlots;
+    }
+
+    public int getDeclarationCount() {
+        return chunks.size();
+    }
+
+    // number of top-level declarations parsed by the last edit
+    public int getReparsedCount() {
+        return reparsed;
+    }
+}
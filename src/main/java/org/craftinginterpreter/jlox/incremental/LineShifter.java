@@ -0,0 +1,213 @@
+package org.craftinginterpreter.jlox.incremental;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Stmt;
+
+// moves every line number in a declaration by delta, for declarations reused behind an edit
+class LineShifter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final int delta;
+
+    LineShifter(int delta) {
+        this.delta = delta;
+    }
+
+    void shift(Stmt stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private void shift(Stmt[] stmts) {
+        for (Stmt stmt : stmts) {
+            shift(stmt);
+        }
+    }
+
+    private void shift(Expr expr) {
+        if (expr != null) {
+            expr.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        expr.line += delta;
+        shift(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expr.line += delta;
+        shift(expr.left);
+        shift(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        expr.line += delta;
+        shift(expr.callee);
+        for (Expr argument : expr.arguments) {
+            shift(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        expr.line += delta;
+        shift(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        expr.line += delta;
+        shift(expr.object);
+        shift(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        expr.line += delta;
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        expr.line += delta;
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        shift(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        shift(expr.left);
+        shift(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.line += delta;
+        shift(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        expr.line += delta;
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        shift(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        stmt.line += delta;
+        shift(stmt.superclass);
+        shift(stmt.methods);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        shift(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.line += delta;
+        shift(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        shift(stmt.condition);
+        shift(stmt.thenBranch);
+        shift(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        stmt.line += delta;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        stmt.line += delta;
+        shift(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        shift(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        stmt.line += delta;
+        shift(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        shift(stmt.condition);
+        shift(stmt.body);
+        return null;
+    }
+
+    // superinstructions are only made for execution, the lines are in the statements they replace
+    @Override
+    public Void visitIncrementStmt(Stmt.Increment stmt) {
+        shift(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitAddAssignStmt(Stmt.AddAssign stmt) {
+        shift(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareIfStmt(Stmt.CompareIf stmt) {
+        shift(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnCallStmt(Stmt.ReturnCall stmt) {
+        shift(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitScalarStmt(Stmt.Scalar stmt) {
+        shift(stmt.original);
+        return null;
+    }
+}
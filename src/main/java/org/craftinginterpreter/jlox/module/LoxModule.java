@@ -0,0 +1,32 @@
+package org.craftinginterpreter.jlox.module;
+
+import org.craftinginterpreter.jlox.ast.Stmt;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+// one imported file, scanned, parsed and resolved on its own
+public class LoxModule {
+    private final Path path;
+    private final List<Stmt> statements;
+    private final Map<Path, Stmt.Import> imports; // dependency -> the import naming it
+
+    LoxModule(Path path, List<Stmt> statements, Map<Path, Stmt.Import> imports) {
+        this.path = path;
+        this.statements = statements;
+        this.imports = imports;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<Stmt> getStatements() {
+        return statements;
+    }
+
+    Map<Path, Stmt.Import> getImports() {
+        return imports;
+    }
+}
@@ -0,0 +1,207 @@
+package org.craftinginterpreter.jlox.module;
+
+import org.craftinginterpreter.jlox.ErrorReporter;
+import org.craftinginterpreter.jlox.Lox;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.cache.ProgramCache;
+import org.craftinginterpreter.jlox.executor.RuntimeError;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// Loads the modules a program imports. Every module is scanned, parsed and resolved in its own
+// ForkJoinPool task, which schedules the modules it imports as soon as it has parsed them, so
+// independent files are compiled in parallel. The dependency graph then decides execution order:
+// a module runs once, after everything it imports. All modules share the interpreter's globals.
+public class ModuleLoader {
+    private final ForkJoinPool pool;
+    private final GlobalSlots globalSlots; // modules are compiled in the family of the importing program
+
+    // modules that ran (see ran()), an import of them is a no-op. One that failed to compile, or that
+    // didn't run because something before it failed, is loaded again by the next import of it.
+    private final Set<Path> loaded = new HashSet<>();
+
+    public ModuleLoader() {
+        this(GlobalSlots.DEFAULT);
+    }
+
+    public ModuleLoader(GlobalSlots globalSlots) {
+        this(ForkJoinPool.commonPool(), globalSlots);
+    }
+
+    public ModuleLoader(ForkJoinPool pool, GlobalSlots globalSlots) {
+        this.pool = pool;
+        this.globalSlots = globalSlots;
+    }
+
+    // for a forked interpreter: the modules that ran already ran for it too
+    public ModuleLoader(ModuleLoader parent) {
+        this(parent.pool, parent.globalSlots);
+        loaded.addAll(parent.loaded);
+    }
+
+    // the modules statements import, directly or not, that still have to run, in execution order
+    public List<LoxModule> load(Path baseDir, List<Stmt> statements) {
+        Map<Path, Stmt.Import> roots = importsOf(baseDir, statements);
+        if (roots.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Path, ForkJoinTask<LoxModule>> tasks = new ConcurrentHashMap<>();
+        for (Map.Entry<Path, Stmt.Import> root : roots.entrySet()) {
+            schedule(tasks, root.getKey(), root.getValue());
+        }
+
+        // tasks only add dependencies before they finish, so once every known task is done we have all
+        int known;
+        do {
+            known = tasks.size();
+            for (ForkJoinTask<LoxModule> task : new ArrayList<>(tasks.values())) {
+                task.join();
+            }
+        } while (tasks.size() != known);
+
+        Map<Path, LoxModule> modules = new HashMap<>();
+        for (Map.Entry<Path, ForkJoinTask<LoxModule>> task : tasks.entrySet()) {
+            modules.put(task.getKey(), task.getValue().join());
+        }
+
+        List<LoxModule> order = new ArrayList<>();
+        Set<Path> visiting = new HashSet<>();
+        Set<Path> ordered = new HashSet<>();
+        for (Map.Entry<Path, Stmt.Import> root : roots.entrySet()) {
+            visit(root.getKey(), root.getValue(), modules, visiting, ordered, order);
+        }
+        return order;
+    }
+
+    // to call once module ran without a runtime error, later imports of it won't run it again
+    public void ran(LoxModule module) {
+        loaded.add(module.getPath());
+    }
+
+    // depth first, dependencies land in order before their importer
+    private void visit(Path path, Stmt.Import importedAt, Map<Path, LoxModule> modules, Set<Path> visiting,
+                       Set<Path> ordered, List<LoxModule> order) {
+        if (loaded.contains(path) || ordered.contains(path)) {
+            return ;
+        }
+        if (!visiting.add(path)) {
+            error(importedAt, "Import cycle through '" + path.getFileName() + "'.");
+            return ;
+        }
+        LoxModule module = modules.get(path);
+        if (module != null) {
+            for (Map.Entry<Path, Stmt.Import> dependency : module.getImports().entrySet()) {
+                visit(dependency.getKey(), dependency.getValue(), modules, visiting, ordered, order);
+            }
+            order.add(module);
+            ordered.add(path);
+        }
+        visiting.remove(path);
+    }
+
+    private void schedule(Map<Path, ForkJoinTask<LoxModule>> tasks, Path path, Stmt.Import importedAt) {
+        if (loaded.contains(path)) {
+            return ;
+        }
+        ModuleTask task = new ModuleTask(tasks, path, importedAt);
+        if (tasks.putIfAbsent(path, task) != null) {
+            return ;
+        }
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.fork();
+        } else {
+            pool.execute(task);
+        }
+    }
+
+    private static Map<Path, Stmt.Import> importsOf(Path baseDir, List<Stmt> statements) {
+        Map<Path, Stmt.Import> imports = new LinkedHashMap<>();
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Import) {
+                Stmt.Import path = (Stmt.Import) stmt;
+                imports.putIfAbsent(resolvePath(baseDir, path.path), path);
+            }
+        }
+        return imports;
+    }
+
+    private static void error(Stmt.Import importedAt, String message) {
+        Lox.error(importedAt.line, "\"" + importedAt.path + "\"", message);
+    }
+
+    public static Path resolvePath(Path baseDir, String path) {
+        return baseDir.resolve(path).toAbsolutePath().normalize();
+    }
+
+    private class ModuleTask extends RecursiveTask<LoxModule> {
+        private final Map<Path, ForkJoinTask<LoxModule>> tasks;
+        private final Path path;
+        private final Stmt.Import importedAt;
+        // the errors go where those of the thread that loads the program go, not to the pool thread's
+        private final ErrorReporter errors = Lox.reporter();
+
+        ModuleTask(Map<Path, ForkJoinTask<LoxModule>> tasks, Path path, Stmt.Import importedAt) {
+            this.tasks = tasks;
+            this.path = path;
+            this.importedAt = importedAt;
+        }
+
+        @Override
+        protected LoxModule compute() {
+            return Lox.reportingTo(errors, this::load);
+        }
+
+        private LoxModule load() {
+            byte[] source;
+            try {
+                source = Files.readAllBytes(path);
+            } catch (IOException e) {
+                error(importedAt, "Can't read module '" + path + "'.");
+                return null;
+            }
+
+            CompiledProgram program = Lox.reportingTo(inModule(), () -> ProgramCache.compile(path, source, globalSlots));
+            if (program == null) {
+                // compile errors are reported already
+                return null;
+            }
+            Map<Path, Stmt.Import> imports = importsOf(path.getParent(), program.getStatements());
+            for (Map.Entry<Path, Stmt.Import> dependency : imports.entrySet()) {
+                schedule(tasks, dependency.getKey(), dependency.getValue());
+            }
+            return new LoxModule(path, program.getStatements(), imports);
+        }
+
+        // compile errors of the module, their lines are in its file and not in the importing one
+        private ErrorReporter inModule() {
+            return new ErrorReporter() {
+                @Override
+                public void error(int line, String where, String message) {
+                    errors.error(line, " in '" + path + "'" + where, message);
+                }
+
+                @Override
+                public void runtimeError(RuntimeError error) {
+                    errors.runtimeError(error);
+                }
+            };
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package org.craftinginterpreter.jlox.oop;
 
+import org.craftinginterpreter.jlox.ast.Stmt;
 import org.craftinginterpreter.jlox.executor.Interpreter;
 import org.craftinginterpreter.jlox.helper.LoxCallable;
 import org.craftinginterpreter.jlox.function.LoxFunction;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,10 +16,40 @@ public class LoxClass implements LoxCallable {
 
     private final LoxClass superclass;
 
-    public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    private final LoxFunction initializer;
+
+    // slots of the fields an initializer of this class or a superclass assigns to 'this', so instances
+    // are created with room for them (see Resolver.visitSetExpr)
+    final Map<String, Integer> layout;
+
+    // the class statement this was created by, a Stmt.Scalar checks it still is the class it replaced
+    private final Stmt.Class declaration;
+
+    public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods, String[] initializerFields,
+                    Stmt.Class declaration) {
         this.name = name;
+        this.declaration = declaration;
         this.methods = methods;
         this.superclass = superclass;
+        this.initializer = findMethod("init");
+
+        layout = superclass == null ? new HashMap<>() : new HashMap<>(superclass.layout);
+        for (String field : initializerFields) {
+            layout.putIfAbsent(field, layout.size());
+        }
+    }
+
+    public Stmt.Class getDeclaration() {
+        return declaration;
+    }
+
+    public LoxClass getSuperclass() {
+        return superclass;
+    }
+
+    // the methods the class declares itself, by name
+    public Map<String, LoxFunction> getMethods() {
+        return methods;
     }
 
     @Override
@@ -27,7 +59,6 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) {
             return 0;
         }
@@ -36,22 +67,32 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        LoxInstance instance = new LoxInstance(this);
+        LoxInstance instance = new LoxInstance(this, interpreter.heap());
 
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
 
     public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
+        LoxFunction method = methods.get(name);
+        if (method != null) {
+            return method;
         }
-        if (superclass.methods.containsKey(name)) {
+        if (superclass != null) {
             return superclass.findMethod(name);
         }
         return null;
     }
+
+    // the methods a method of a subclass calls through 'super', in the order of its superMethods names.
+    // Looked up once per method of a class definition instead of on every call, null where there is none.
+    public LoxFunction[] superMethods(String[] names) {
+        LoxFunction[] found = new LoxFunction[names.length];
+        for (int i = 0; i < names.length; i++) {
+            found[i] = findMethod(names[i]);
+        }
+        return found;
+    }
 }
@@ -2,17 +2,61 @@ package org.craftinginterpreter.jlox.oop;
 
 import org.craftinginterpreter.jlox.executor.RuntimeError;
 import org.craftinginterpreter.jlox.function.LoxFunction;
-import org.craftinginterpreter.jlox.scanner.Token;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class LoxInstance {
+    private static final Object ABSENT = new Object(); // a layout field not assigned yet
+
     private LoxClass kclass;
 
-    private final Map<String, Object> fields = new HashMap<>();
-    LoxInstance(LoxClass kclass) {
+    private final Object[] values; // the fields in the class layout
+    private Map<String, Object> fields; // any others, created on the first one
+
+    private final Object owner; // the heap of the Interpreter that created it, see Interpreter.fork
+
+    public LoxInstance(LoxClass kclass, Object owner) {
         this.kclass = kclass;
+        this.values = new Object[kclass.layout.size()];
+        this.owner = owner;
+        Arrays.fill(values, ABSENT);
+    }
+
+    private LoxInstance(LoxInstance instance, Object owner) {
+        this.kclass = instance.kclass;
+        this.values = instance.values.clone();
+        this.fields = instance.fields == null ? null : new HashMap<>(instance.fields);
+        this.owner = owner;
+    }
+
+    public Object getOwner() {
+        return owner;
+    }
+
+    public LoxClass getKlass() {
+        return kclass;
+    }
+
+    // the fields assigned so far, the ones in the class layout first
+    public Map<String, Object> getFields() {
+        Map<String, Object> assigned = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> field : kclass.layout.entrySet()) {
+            if (values[field.getValue()] != ABSENT) {
+                assigned.put(field.getKey(), values[field.getValue()]);
+            }
+        }
+        if (fields != null) {
+            assigned.putAll(fields);
+        }
+        return assigned;
+    }
+
+    // the fields of this instance for an Interpreter that shares it and writes to it
+    public LoxInstance copy(Object owner) {
+        return new LoxInstance(this, owner);
     }
 
     @Override
@@ -20,20 +64,38 @@ public class LoxInstance {
         return kclass.name + " instance";
     }
 
-    public Object get(Token name) {
-        if (fields.containsKey(name.getLexeme())) {
-            return fields.get(name.getLexeme());
+    public Object get(String name, int line) {
+        return get(name, line, this);
+    }
+
+    // receiver is the instance methods are bound to, the one the fields are read from may be its copy
+    public Object get(String name, int line, LoxInstance receiver) {
+        Integer index = kclass.layout.get(name);
+        if (index != null) {
+            if (values[index] != ABSENT) {
+                return values[index];
+            }
+        } else if (fields != null && fields.containsKey(name)) {
+            return fields.get(name);
         }
 
-        LoxFunction method = kclass.findMethod(name.getLexeme());
+        LoxFunction method = kclass.findMethod(name);
         if (method != null) {
-            return method.bind(this);
+            return method.bind(receiver);
         }
 
-        throw new RuntimeError(name, "undefined property '" + name.getLexeme() + "'." );
+        throw new RuntimeError(line, "undefined property '" + name + "'." );
     }
 
-    public void set(Token name, Object value) {
-        fields.put(name.getLexeme(), value);
+    public void set(String name, Object value) {
+        Integer index = kclass.layout.get(name);
+        if (index != null) {
+            values[index] = value;
+            return ;
+        }
+        if (fields == null) {
+            fields = new HashMap<>();
+        }
+        fields.put(name, value);
     }
 }
@@ -0,0 +1,510 @@
+package org.craftinginterpreter.jlox.optimizer;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Replaces instances used as plain records inside a function by locals for their fields, so they are
+// never allocated. A local
+//     var p = C(a, b);
+// qualifies when C is a class declared at top level without a superclass whose init only copies its
+// parameters or literals into fields, p lives in the frame (no closure captures it) and p is only ever
+// used as p.field or p.field = value for fields that init sets. The declaration becomes a Scalar that
+// puts the fields into frame slots after the function's locals, and the Get and Set nodes read and write
+// those slots (fieldSlot). Whether C still is that class is only known when the declaration runs: if it
+// isn't, the call happens as usual and the Get and Set nodes find a real object in p.
+// Runs on resolved statements of a whole program, after TypeInference and before Superinstructions.
+// Lazily parsed bodies are left alone. -Djlox.scalarreplacement=off turns it off, for comparison.
+public class ScalarReplacement implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final boolean ENABLED = !"off".equals(System.getProperty("jlox.scalarreplacement"));
+
+    // what init of a class that qualifies does: field i of the instance gets argument arguments[i], or
+    // literals[i] where that is -1
+    private static class Shape {
+        final Stmt.Class type;
+        final String[] fields;
+        final int[] arguments;
+        final Object[] literals;
+
+        Shape(Stmt.Class type, String[] fields, int[] arguments, Object[] literals) {
+            this.type = type;
+            this.fields = fields;
+            this.arguments = arguments;
+            this.literals = literals;
+        }
+    }
+
+    private static class Candidate {
+        final Stmt.Var declaration;
+        final Shape shape;
+        final Stmt[] container; // where the declaration is, to put the Scalar
+        final int index;
+        boolean escapes = false;
+        final List<Expr.Get> gets = new ArrayList<>();
+        final List<Expr.Set> sets = new ArrayList<>();
+
+        Candidate(Stmt.Var declaration, Shape shape, Stmt[] container, int index) {
+            this.declaration = declaration;
+            this.shape = shape;
+            this.container = container;
+            this.index = index;
+        }
+    }
+
+    private final Map<String, Shape> shapes;
+    // the locals in scope by name, innermost last, null for the ones that aren't candidates
+    private final List<Map<String, Candidate>> scopes = new ArrayList<>();
+    private final List<Candidate> candidates = new ArrayList<>();
+    private final List<Stmt.Function> nested = new ArrayList<>(); // functions found in the one analyzed
+
+    private ScalarReplacement(Map<String, Shape> shapes) {
+        this.shapes = shapes;
+    }
+
+    public static void replace(List<Stmt> statements) {
+        if (!ENABLED) {
+            return ;
+        }
+        Map<String, Shape> shapes = new HashMap<>();
+        Set<String> declared = new HashSet<>();
+        for (Stmt stmt : statements) {
+            if (stmt.kind == Stmt.CLASS && !declared.add(((Stmt.Class) stmt).name)) {
+                // declared twice, uses can't be told apart
+                shapes.remove(((Stmt.Class) stmt).name);
+            } else if (stmt.kind == Stmt.CLASS) {
+                Shape shape = shape((Stmt.Class) stmt);
+                if (shape != null) {
+                    shapes.put(shape.type.name, shape);
+                }
+            }
+        }
+
+        List<Stmt.Function> functions = new ArrayList<>();
+        for (Stmt stmt : statements) {
+            topLevelFunctions(stmt, functions);
+        }
+        for (int i = 0; i < functions.size(); i++) {
+            ScalarReplacement pass = new ScalarReplacement(shapes);
+            pass.analyze(functions.get(i));
+            functions.addAll(pass.nested);
+        }
+    }
+
+    // functions and methods declared outside of functions, in top-level code and its blocks
+    private static void topLevelFunctions(Stmt stmt, List<Stmt.Function> functions) {
+        if (stmt == null) {
+            return ;
+        }
+        switch (stmt.kind) {
+            case Stmt.FUNCTION:
+                functions.add((Stmt.Function) stmt);
+                break;
+            case Stmt.CLASS:
+                for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+                    functions.add(method);
+                }
+                break;
+            case Stmt.BLOCK:
+                for (Stmt inner : ((Stmt.Block) stmt).statements) {
+                    topLevelFunctions(inner, functions);
+                }
+                break;
+            case Stmt.IF:
+                topLevelFunctions(((Stmt.If) stmt).thenBranch, functions);
+                topLevelFunctions(((Stmt.If) stmt).elseBranch, functions);
+                break;
+            case Stmt.WHILE:
+                topLevelFunctions(((Stmt.While) stmt).body, functions);
+                break;
+        }
+    }
+
+    // null unless every statement of init is this.field = parameter or this.field = literal
+    private static Shape shape(Stmt.Class type) {
+        if (type.superclass != null) {
+            return null;
+        }
+        Stmt.Function init = null;
+        for (Stmt.Function method : type.methods) {
+            if (method.name.equals("init")) {
+                init = method;
+            }
+        }
+        if (init == null) {
+            return new Shape(type, new String[0], new int[0], new Object[0]);
+        }
+        if (init.lazy != null) {
+            return null;
+        }
+
+        int count = init.body.length;
+        String[] fields = new String[count];
+        int[] arguments = new int[count];
+        Object[] literals = new Object[count];
+        for (int i = 0; i < count; i++) {
+            Stmt stmt = init.body[i];
+            if (stmt.kind != Stmt.EXPRESSION || ((Stmt.Expression) stmt).expression.kind != Expr.SET) {
+                return null;
+            }
+            Expr.Set set = (Expr.Set) ((Stmt.Expression) stmt).expression;
+            if (set.object.kind != Expr.THIS) {
+                return null;
+            }
+            fields[i] = set.name;
+            arguments[i] = -1;
+            if (set.value.kind == Expr.LITERAL) {
+                literals[i] = ((Expr.Literal) set.value).value;
+            } else if (set.value.kind == Expr.VAR) {
+                arguments[i] = parameter(init, (Expr.Var) set.value);
+                if (arguments[i] < 0) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return new Shape(type, fields, arguments, literals);
+    }
+
+    // index of the parameter var reads, -1 if it reads something else
+    private static int parameter(Stmt.Function function, Expr.Var var) {
+        if (var.storage != Resolver.FRAME) {
+            return -1;
+        }
+        for (int i = 0; i < function.params.length; i++) {
+            if (function.paramStorages[i] == Resolver.FRAME && function.paramSlots[i] == var.slot) {
+                return function.params[i].equals(var.name) ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    private void analyze(Stmt.Function function) {
+        if (function.lazy != null) {
+            return ;
+        }
+        scopes.add(new HashMap<>());
+        for (String param : function.params) {
+            declare(param, null);
+        }
+        walk(function.body);
+        scopes.clear();
+
+        for (Candidate candidate : candidates) {
+            if (!candidate.escapes) {
+                replace(function, candidate);
+            }
+        }
+    }
+
+    // one frame slot after the function's locals for each field
+    private static void replace(Stmt.Function function, Candidate candidate) {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        for (String field : candidate.shape.fields) {
+            if (!slots.containsKey(field)) {
+                slots.put(field, function.frameSize + slots.size());
+            }
+        }
+        function.frameSize += slots.size();
+        function.scalarSlots += slots.size();
+
+        for (Expr.Get get : candidate.gets) {
+            get.fieldSlot = slots.get(get.name);
+        }
+        for (Expr.Set set : candidate.sets) {
+            set.fieldSlot = slots.get(set.name);
+        }
+        Shape shape = candidate.shape;
+        int[] fieldSlots = new int[shape.fields.length];
+        for (int i = 0; i < fieldSlots.length; i++) {
+            fieldSlots[i] = slots.get(shape.fields[i]);
+        }
+        candidate.container[candidate.index] = new Stmt.Scalar(candidate.declaration,
+                (Expr.Call) candidate.declaration.initializer, shape.type, fieldSlots, shape.arguments, shape.literals);
+    }
+
+    private void walk(Stmt[] stmts) {
+        for (int i = 0; i < stmts.length; i++) {
+            if (stmts[i].kind == Stmt.VAR) {
+                declareVar((Stmt.Var) stmts[i], stmts, i);
+            } else {
+                walk(stmts[i]);
+            }
+        }
+    }
+
+    private void walk(Stmt stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private void walk(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void declareVar(Stmt.Var stmt, Stmt[] container, int index) {
+        if (stmt.initializer != null) {
+            walk(stmt.initializer);
+        }
+        Candidate candidate = null;
+        Shape shape = shape(stmt);
+        if (shape != null) {
+            candidate = new Candidate(stmt, shape, container, index);
+            candidates.add(candidate);
+        }
+        declare(stmt.name, candidate);
+    }
+
+    // the class a declaration creates an instance of, if it may be replaced
+    private Shape shape(Stmt.Var stmt) {
+        if (stmt.storage != Resolver.FRAME || stmt.initializer == null || stmt.initializer.kind != Expr.CALL) {
+            return null;
+        }
+        Expr callee = ((Expr.Call) stmt.initializer).callee;
+        if (callee.kind != Expr.VAR || ((Expr.Var) callee).storage != Resolver.GLOBAL) {
+            return null;
+        }
+        return shapes.get(((Expr.Var) callee).name);
+    }
+
+    private void declare(String name, Candidate candidate) {
+        scopes.get(scopes.size() - 1).put(name, candidate);
+    }
+
+    private Candidate lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Map<String, Candidate> scope = scopes.get(i);
+            if (scope.containsKey(name)) {
+                return scope.get(name);
+            }
+        }
+        return null;
+    }
+
+    // the candidate expr names, if it is a plain use of one
+    private Candidate candidate(Expr expr) {
+        return expr.kind == Expr.VAR ? lookup(((Expr.Var) expr).name) : null;
+    }
+
+    private static boolean hasField(Candidate candidate, String name) {
+        for (String field : candidate.shape.fields) {
+            if (field.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        walk(expr.value);
+        Candidate candidate = lookup(expr.name);
+        if (candidate != null) {
+            candidate.escapes = true;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        walk(expr.callee);
+        for (Expr argument : expr.arguments) {
+            walk(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        Candidate candidate = candidate(expr.object);
+        if (candidate != null && hasField(candidate, expr.name)) {
+            candidate.gets.add(expr);
+        } else {
+            walk(expr.object);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        walk(expr.value);
+        Candidate candidate = candidate(expr.object);
+        if (candidate != null && hasField(candidate, expr.name)) {
+            candidate.sets.add(expr);
+        } else {
+            walk(expr.object);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        walk(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        walk(expr.left);
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        walk(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        // anything but p.field lets the instance escape
+        Candidate candidate = lookup(expr.name);
+        if (candidate != null) {
+            candidate.escapes = true;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new HashMap<>());
+        walk(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name, null);
+        if (stmt.superclass != null) {
+            walk(stmt.superclass);
+        }
+        for (Stmt.Function method : stmt.methods) {
+            nested.add(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // a closure that used a candidate would have captured it, so it wouldn't be one
+        declare(stmt.name, null);
+        nested.add(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        walk(stmt.condition);
+        walk(stmt.thenBranch);
+        walk(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            walk(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        walk(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // the Parser only puts declarations in blocks and bodies, which walk(Stmt[]) goes through
+        if (stmt.initializer != null) {
+            walk(stmt.initializer);
+        }
+        declare(stmt.name, null);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        walk(stmt.condition);
+        walk(stmt.body);
+        return null;
+    }
+
+    // runs before Superinstructions, so there are none of these but in code replaced already
+    @Override
+    public Void visitIncrementStmt(Stmt.Increment stmt) {
+        walk(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitAddAssignStmt(Stmt.AddAssign stmt) {
+        walk(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareIfStmt(Stmt.CompareIf stmt) {
+        walk(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnCallStmt(Stmt.ReturnCall stmt) {
+        walk(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitScalarStmt(Stmt.Scalar stmt) {
+        // replaced already, its uses stay as they are
+        walk(stmt.call);
+        declare(stmt.original.name, null);
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package org.craftinginterpreter.jlox.optimizer;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.scanner.TokenType;
+
+import java.util.List;
+
+// Rewrites the statement shapes scripts are mostly made of into fused nodes the Interpreter runs in one
+// step instead of a dispatch per node:
+//   x = x + 1;  x = x - 1;    Increment, the number is added without evaluating it
+//   x = x + expr;             AddAssign, x is read and written where it lives without an Assign
+//   if (a < b) ...            CompareIf, compares without boxing the result (also <=, >, >=, ==, !=)
+//   return f(x);              ReturnCall, calls without evaluating through the Return
+// Runs on resolved statements, the fused nodes use the resolved location of x. Statements are replaced in
+// their Block, body or list; an If or While whose branch changed is copied. A fused node keeps the
+// statement it replaces, passes that don't know it (Resolver, ProgramWriter, LineShifter) go there.
+// Fusing twice changes nothing. -Djlox.superinstructions=off leaves programs as they are, for comparison.
+public class Superinstructions {
+    private static final boolean ENABLED = !"off".equals(System.getProperty("jlox.superinstructions"));
+
+    // indexes in Interpreter.getFusedCounts()
+    public static final int INCREMENT = 0;
+    public static final int ADD_ASSIGN = 1;
+    public static final int COMPARE_IF = 2;
+    public static final int RETURN_CALL = 3;
+    public static final String[] NAMES = {"increment", "add-assign", "compare-if", "return-call"};
+
+    private Superinstructions() {
+    }
+
+    public static void fuse(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            statements.set(i, fuse(statements.get(i)));
+        }
+    }
+
+    public static void fuse(Stmt[] statements) {
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = fuse(statements[i]);
+        }
+    }
+
+    // the statement to run instead of stmt, stmt itself if nothing in it changed
+    public static Stmt fuse(Stmt stmt) {
+        if (!ENABLED || stmt == null) {
+            return stmt;
+        }
+        switch (stmt.kind) {
+            case Stmt.BLOCK:
+                fuse(((Stmt.Block) stmt).statements);
+                return stmt;
+            case Stmt.CLASS:
+                for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+                    fuse(method.body);
+                }
+                return stmt;
+            case Stmt.FUNCTION:
+                // a lazy body is empty, it is fused once compiled (see Resolver.compile)
+                fuse(((Stmt.Function) stmt).body);
+                return stmt;
+            case Stmt.EXPRESSION:
+                return fuseExpression((Stmt.Expression) stmt);
+            case Stmt.IF:
+                return fuseIf((Stmt.If) stmt);
+            case Stmt.RETURN: {
+                Stmt.Return returnStmt = (Stmt.Return) stmt;
+                if (returnStmt.value != null && returnStmt.value.kind == Expr.CALL) {
+                    return new Stmt.ReturnCall(returnStmt, (Expr.Call) returnStmt.value);
+                }
+                return stmt;
+            }
+            case Stmt.WHILE:
+                return fuseWhile((Stmt.While) stmt);
+            default:
+                return stmt;
+        }
+    }
+
+    private static Stmt fuseExpression(Stmt.Expression stmt) {
+        if (stmt.expression.kind != Expr.ASSIGN) {
+            return stmt;
+        }
+        Expr.Assign assign = (Expr.Assign) stmt.expression;
+        if (assign.value.kind != Expr.BINARY) {
+            return stmt;
+        }
+        Expr.Binary binary = (Expr.Binary) assign.value;
+        if (binary.left.kind != Expr.VAR) {
+            return stmt;
+        }
+        Expr.Var var = (Expr.Var) binary.left;
+        // the same name in the same expression is the same variable
+        if (!var.name.equals(assign.name)) {
+            return stmt;
+        }
+
+        if (binary.right.kind == Expr.LITERAL && ((Expr.Literal) binary.right).value instanceof Double
+                && (binary.operator == TokenType.PLUS || binary.operator == TokenType.MINUS)) {
+            double delta = (double) ((Expr.Literal) binary.right).value;
+            return new Stmt.Increment(stmt, assign, binary.operator == TokenType.PLUS ? delta : -delta);
+        }
+        if (binary.operator == TokenType.PLUS) {
+            return new Stmt.AddAssign(stmt, assign, binary.right);
+        }
+        return stmt;
+    }
+
+    private static Stmt fuseIf(Stmt.If stmt) {
+        Stmt thenBranch = fuse(stmt.thenBranch);
+        Stmt elseBranch = fuse(stmt.elseBranch);
+        if (stmt.condition.kind == Expr.BINARY) {
+            Expr.Binary condition = (Expr.Binary) stmt.condition;
+            switch (condition.operator) {
+                case LESS:
+                case LESS_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL:
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    return new Stmt.CompareIf(stmt, condition, thenBranch, elseBranch);
+            }
+        }
+        if (thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(stmt.condition, thenBranch, elseBranch);
+    }
+
+    private static Stmt fuseWhile(Stmt.While stmt) {
+        if (stmt.counted) {
+            // Interpreter.countedLoop expects the increment as the Resolver marked it
+            Stmt[] body = ((Stmt.Block) stmt.body).statements;
+            body[0] = fuse(body[0]);
+            return stmt;
+        }
+        Stmt body = fuse(stmt.body);
+        if (body == stmt.body) {
+            return stmt;
+        }
+        return new Stmt.While(stmt.condition, body);
+    }
+}
@@ -0,0 +1,365 @@
+package org.craftinginterpreter.jlox.optimizer;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Infers which expressions always produce numbers and marks the Binary and Unary nodes whose operands
+// are all numbers as numeric, the Interpreter then computes them on doubles without checking the
+// operands (see Interpreter.number). Runs on resolved statements, before Superinstructions.
+// Locals kept in the frame (Resolver.FRAME) have a type: the join of everything assigned to them in their
+// function, found by going over the function until nothing changes, starting from "nothing assigned" so
+// loop counters come out as numbers. Parameters, globals and locals closures can write to are unknown.
+// Nothing is marked when inference fails, the checks stay where they are.
+// -Djlox.typeinference=off leaves programs as they are, for comparison.
+public class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+    private static final boolean ENABLED = !"off".equals(System.getProperty("jlox.typeinference"));
+
+    enum Type {
+        NONE, // nothing assigned yet
+        NUMBER,
+        STRING,
+        BOOLEAN,
+        ANY;
+
+        Type join(Type other) {
+            if (this == NONE || this == other) {
+                return other;
+            }
+            return other == NONE ? this : ANY;
+        }
+    }
+
+    // a frame local by its declaration, the type outlives the passes over its function
+    private final Map<Stmt.Var, Type> types = new IdentityHashMap<>();
+    // the locals in scope by name, innermost last, for the function being inferred only
+    private List<Map<String, Stmt.Var>> scopes = new ArrayList<>();
+    private boolean changed = false;
+    // functions declared in the one being inferred, inferred once it is done
+    private final Map<Stmt.Function, String[]> nested = new IdentityHashMap<>();
+
+    private TypeInference() {
+    }
+
+    public static void infer(List<Stmt> statements) {
+        if (ENABLED) {
+            new TypeInference().inferFunction(statements.toArray(new Stmt[0]), new String[0]);
+        }
+    }
+
+    // the body of a function compiled on its first call (see Resolver.compile)
+    public static void infer(Stmt.Function function) {
+        if (ENABLED) {
+            new TypeInference().inferFunction(function.body, function.params);
+        }
+    }
+
+    private void inferFunction(Stmt[] body, String[] params) {
+        List<Map<String, Stmt.Var>> enclosing = scopes;
+        scopes = new ArrayList<>();
+        do {
+            changed = false;
+            beginScope();
+            // shadow the names of globals and of locals of enclosing functions
+            for (String param : params) {
+                scopes.get(0).put(param, null);
+            }
+            infer(body);
+            scopes.remove(scopes.size() - 1);
+        } while (changed);
+        scopes = enclosing;
+
+        for (Stmt.Function function : new ArrayList<>(nested.keySet())) {
+            nested.remove(function);
+            new TypeInference().inferFunction(function.body, function.params);
+        }
+    }
+
+    private void infer(Stmt[] stmts) {
+        for (Stmt stmt : stmts) {
+            infer(stmt);
+        }
+    }
+
+    private void infer(Stmt stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private Type infer(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    // null for anything that isn't a frame local of the function being inferred
+    private Stmt.Var lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Map<String, Stmt.Var> scope = scopes.get(i);
+            if (scope.containsKey(name)) {
+                return scope.get(name);
+            }
+        }
+        return null;
+    }
+
+    private void declare(String name, Stmt.Var declaration) {
+        if (!scopes.isEmpty()) {
+            scopes.get(scopes.size() - 1).put(name, declaration);
+        }
+    }
+
+    private void assign(Stmt.Var declaration, Type type) {
+        Type current = types.getOrDefault(declaration, Type.NONE);
+        Type joined = current.join(type);
+        if (joined != current) {
+            types.put(declaration, joined);
+            changed = true;
+        }
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        Type type = infer(expr.value);
+        Stmt.Var declaration = expr.storage == Resolver.FRAME ? lookup(expr.name) : null;
+        if (declaration != null) {
+            assign(declaration, type);
+        }
+        return type;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = infer(expr.left);
+        Type right = infer(expr.right);
+        boolean numbers = left == Type.NUMBER && right == Type.NUMBER;
+        switch (expr.operator) {
+            case PLUS:
+                expr.numeric = numbers;
+                if (numbers || (left == Type.STRING && right == Type.STRING)) {
+                    return left;
+                }
+                return Type.ANY;
+            case MINUS:
+            case STAR:
+            case SLASH:
+                expr.numeric = numbers;
+                return Type.NUMBER;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                expr.numeric = numbers;
+                return Type.BOOLEAN;
+            default:
+                // == and != compare Doubles with equals(), NaN and -0 included, so they stay as they are
+                return Type.BOOLEAN;
+        }
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        infer(expr.object);
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        infer(expr.object);
+        return infer(expr.value);
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        return typeOf(expr.value);
+    }
+
+    private static Type typeOf(Object value) {
+        if (value instanceof Double) {
+            return Type.NUMBER;
+        }
+        if (value instanceof String) {
+            return Type.STRING;
+        }
+        if (value instanceof Boolean) {
+            return Type.BOOLEAN;
+        }
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        // either operand's value
+        return infer(expr.left).join(infer(expr.right));
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        Type right = infer(expr.right);
+        switch (expr.operator) {
+            case MINUS:
+                expr.numeric = right == Type.NUMBER;
+                return Type.NUMBER;
+            default:
+                return Type.BOOLEAN;
+        }
+    }
+
+    @Override
+    public Type visitVarExpr(Expr.Var expr) {
+        if (expr.storage == Resolver.CONSTANT) {
+            return typeOf(expr.constant);
+        }
+        Stmt.Var declaration = expr.storage == Resolver.FRAME ? lookup(expr.name) : null;
+        if (declaration == null) {
+            return Type.ANY;
+        }
+        Type type = types.getOrDefault(declaration, Type.NONE);
+        // a read of a local with nothing assigned yet is in a loop, the next pass knows more
+        return type == Type.NONE ? Type.ANY : type;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        infer(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name, null);
+        for (Stmt.Function method : stmt.methods) {
+            nested.put(method, method.params);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name, null);
+        nested.put(stmt, stmt.params);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        infer(stmt.thenBranch);
+        infer(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            infer(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Type type = stmt.initializer == null ? Type.ANY : infer(stmt.initializer);
+        if (stmt.storage == Resolver.FRAME) {
+            assign(stmt, type);
+            declare(stmt.name, stmt);
+        } else {
+            declare(stmt.name, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        infer(stmt.condition);
+        infer(stmt.body);
+        return null;
+    }
+
+    // inference runs before Superinstructions, these only show up in code that was fused already
+    @Override
+    public Void visitIncrementStmt(Stmt.Increment stmt) {
+        infer(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitAddAssignStmt(Stmt.AddAssign stmt) {
+        infer(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareIfStmt(Stmt.CompareIf stmt) {
+        infer(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnCallStmt(Stmt.ReturnCall stmt) {
+        infer(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitScalarStmt(Stmt.Scalar stmt) {
+        infer(stmt.original);
+        return null;
+    }
+}
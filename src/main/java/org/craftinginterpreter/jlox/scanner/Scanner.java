@@ -2,17 +2,18 @@ package org.craftinginterpreter.jlox.scanner;
 
 import org.craftinginterpreter.jlox.Lox;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class Scanner {
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private TokenBuffer tokens;
     private int start= 0;
     private int curr = 0;
     private int line = 1;
+    private boolean scannedEof = false;
+    private boolean hadError = false;
 
     private static final Map<String, TokenType> keyWords;
 
@@ -20,11 +21,13 @@ public class Scanner {
         keyWords = new HashMap<>();
         keyWords.put("and", TokenType.AND);
         keyWords.put("class", TokenType.CLASS);
+        keyWords.put("const", TokenType.CONST);
         keyWords.put("else", TokenType.ELSE);
         keyWords.put("false", TokenType.FALSE);
         keyWords.put("for", TokenType.FOR);
         keyWords.put("fun", TokenType.FUN);
         keyWords.put("if", TokenType.IF);
+        keyWords.put("import", TokenType.IMPORT);
         keyWords.put("nil", TokenType.NIL);
         keyWords.put("or", TokenType.OR);
         keyWords.put("print", TokenType.PRINT);
@@ -40,15 +43,65 @@ public class Scanner {
         this.source = source;
     }
 
+    // scan source from offset on, e.g. to re-lex the tail of an edited document
+    public Scanner(String source, int offset, int line) {
+        this.source = source;
+        this.curr = offset;
+        this.line = line;
+    }
+
     public List<Token> scanTokens() {
+        return scanTokenBuffer().toList();
+    }
+
+    public TokenBuffer scanTokenBuffer() {
+        if (tokens == null) {
+            // roughly one token every few chars for typical code
+            tokens = new TokenBuffer(source, source.length() / 4);
+        }
         while (!isAtEnd()) {
             start = curr;
             scanToken();
         }
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(TokenType.EOF, curr, 0, line, null);
+        scannedEof = true;
         return tokens;
     }
 
+    // streaming mode: the buffer starts empty and is filled on demand through scanNext()
+    public TokenBuffer tokenBuffer() {
+        if (tokens == null) {
+            tokens = new TokenBuffer(source, 0);
+        }
+        return tokens;
+    }
+
+    // scan until at least one more token lands in the buffer, false once EOF has been emitted
+    public boolean scanNext() {
+        if (scannedEof) {
+            return false;
+        }
+        int before = tokens.size();
+        while (!isAtEnd() && tokens.size() == before) {
+            start = curr;
+            scanToken();
+        }
+        if (tokens.size() == before) {
+            tokens.add(TokenType.EOF, curr, 0, line, null);
+            scannedEof = true;
+        }
+        return true;
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    private void error(String message) {
+        hadError = true;
+        Lox.error(line, message);
+    }
+
     private boolean isAtEnd() {
         return curr >= source.length();
     }
@@ -105,7 +158,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     consumeIdentifier();
                 } else {
-                    Lox.error(line, "Unexpected character");
+                    error("Unexpected character");
                 }
         }
     }
@@ -125,7 +178,7 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            error("Unterminated string.");
         }
 
         advance(); //eat "
@@ -202,8 +255,7 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, curr);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, curr - start, line, literal);
     }
 
 }
@@ -0,0 +1,137 @@
+package org.craftinginterpreter.jlox.scanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// struct-of-arrays token stream: one slot per token in each array instead of one Token object per token.
+// Lexemes are kept as (offset, length) into the source and only turned into Strings when a Token is
+// materialized, literals live in a side array that only has entries for NUMBER and STRING tokens.
+// Indexes are logical: when streaming, consumed tokens are discarded and base moves forward.
+public class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+
+    private byte[] types;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] lines;
+    private int size = 0;
+    private int base = 0;
+
+    // token indexes (ascending) that carry a literal, and the literal values themselves
+    private int[] literalIndexes;
+    private Object[] literals;
+    private int literalCount = 0;
+
+    public TokenBuffer(String source, int capacity) {
+        this.source = source;
+        capacity = Math.max(16, capacity);
+        types = new byte[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        literalIndexes = new int[16];
+        literals = new Object[16];
+    }
+
+    void add(TokenType type, int offset, int length, int line, Object literal) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        offsets[size] = offset;
+        lengths[size] = length;
+        lines[size] = line;
+
+        if (literal != null) {
+            if (literalCount == literals.length) {
+                literalIndexes = Arrays.copyOf(literalIndexes, literalCount * 2);
+                literals = Arrays.copyOf(literals, literalCount * 2);
+            }
+            literalIndexes[literalCount] = base + size;
+            literals[literalCount] = literal;
+            literalCount++;
+        }
+        size++;
+    }
+
+    // logical index one past the last scanned token
+    public int size() {
+        return base + size;
+    }
+
+    // tokens still held, all of them unless a streaming parse discarded the consumed ones
+    public int held() {
+        return size;
+    }
+
+    public TokenType type(int index) {
+        return TYPES[types[index - base]];
+    }
+
+    public int line(int index) {
+        return lines[index - base];
+    }
+
+    public int offset(int index) {
+        return offsets[index - base];
+    }
+
+    public int length(int index) {
+        return lengths[index - base];
+    }
+
+    public String lexeme(int index) {
+        int offset = offsets[index - base];
+        return source.substring(offset, offset + lengths[index - base]);
+    }
+
+    public Object literal(int index) {
+        int found = Arrays.binarySearch(literalIndexes, 0, literalCount, index);
+        return found >= 0 ? literals[found] : null;
+    }
+
+    // build a standalone Token for the slot, only done for scanner output and error reports
+    public Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }
+
+    public List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = base; i < base + size; i++) {
+            tokens.add(token(i));
+        }
+        return tokens;
+    }
+
+    // drop every token before index so a streaming parse keeps only its lookbehind/lookahead window
+    public void discardBefore(int index) {
+        int drop = index - base;
+        if (drop <= 0) {
+            return ;
+        }
+        int keep = size - drop;
+        System.arraycopy(types, drop, types, 0, keep);
+        System.arraycopy(offsets, drop, offsets, 0, keep);
+        System.arraycopy(lengths, drop, lengths, 0, keep);
+        System.arraycopy(lines, drop, lines, 0, keep);
+        size = keep;
+        base = index;
+
+        int firstKept = 0;
+        while (firstKept < literalCount && literalIndexes[firstKept] < index) {
+            firstKept++;
+        }
+        int literalsKept = literalCount - firstKept;
+        System.arraycopy(literalIndexes, firstKept, literalIndexes, 0, literalsKept);
+        System.arraycopy(literals, firstKept, literals, 0, literalsKept);
+        Arrays.fill(literals, literalsKept, literalCount, null);
+        literalCount = literalsKept;
+    }
+}
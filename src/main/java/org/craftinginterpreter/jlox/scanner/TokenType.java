@@ -32,11 +32,13 @@ public enum TokenType {
     // Keywords.
     AND,
     CLASS,
+    CONST,
     ELSE,
     FALSE,
     FUN,
     FOR,
     IF,
+    IMPORT,
     NIL,
     OR,
     PRINT,
@@ -0,0 +1,51 @@
+package org.craftinginterpreter.jlox.semanticanalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Numbers every global name the first time a program of the family mentions it. The Resolver writes the
+// number into the slot of global nodes, and each Interpreter keeps its globals in an array indexed by
+// it, so reading a global never hashes its name. Numbers are never reused, so a program resolved once
+// can run in any Interpreter of its family, and modules resolved in parallel agree on them.
+// A family is the programs compiled and the interpreters running them with one table: the command line
+// uses DEFAULT, which lives as long as the process; each LoxEngine has its own, which lives as long as
+// the engine and the programs and contexts it made, and so has each incremental Document. The table only grows, by one slot for every name
+// its programs mention, and so does the globals array of an interpreter using the higher slots.
+// Looking up a name that has a number takes no lock.
+public class GlobalSlots {
+    public static final GlobalSlots DEFAULT = new GlobalSlots();
+
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (names) {
+            slot = slots.get(name);
+            if (slot == null) {
+                slot = names.size();
+                names.add(name);
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+    }
+
+    public String name(int slot) {
+        synchronized (names) {
+            return names.get(slot);
+        }
+    }
+
+    // how many names have a number
+    public int size() {
+        synchronized (names) {
+            return names.size();
+        }
+    }
+}
@@ -1,22 +1,94 @@
 package org.craftinginterpreter.jlox.semanticanalysis;
 
 import org.craftinginterpreter.jlox.function.FunctionType;
-import org.craftinginterpreter.jlox.executor.Interpreter;
 import org.craftinginterpreter.jlox.Lox;
-import org.craftinginterpreter.jlox.scanner.Token;
 import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.LazyBody;
 import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.optimizer.Superinstructions;
+import org.craftinginterpreter.jlox.optimizer.TypeInference;
+import org.craftinginterpreter.jlox.scanner.TokenType;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
+// Works out where every variable lives and writes it into the resolved fields of the nodes (storage
+// and slot). Every local has a slot in the value stack frame of its function's call. A local no nested
+// function refers to is kept in the slot as is, a captured one in a Cell put in the slot when it is
+// declared. A closure copies the Cells of the variables it uses, its free variables, when it is created
+// and holds nothing else (flat closures); a declaration run again, by a loop, makes a fresh Cell.
+// Whether a local is captured is only known once its scope ends, so declarations and the uses in its
+// own function are patched then.
+// A const can't be assigned or declared again in its scope. If its initializer is a literal, uses after
+// the declaration get the value itself (CONSTANT) instead of reading the variable.
 public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
+    public static final int GLOBAL = 0; // the slot is the name's number in GlobalSlots
+    public static final int FRAME = 1; // slot in the value stack frame of the current call
+    public static final int CELL = 2; // a Cell in that slot
+    public static final int UPVALUE = 3; // index in the Cells captured by the running closure
+    public static final int CONSTANT = 4; // a const inlined, the value is in the node (Expr.Var.constant)
+
+    // sets the resolved storage and slot of a node
+    private interface Location {
+        void set(int storage, int slot);
+    }
+
+    // a function body, or top-level code in blocks: owns the frame slots of the locals in it
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        int nextSlot = 0;
+        int frameSize = 0;
+        // free variables, by their index in the captured Cells
+        final Map<Variable, Integer> upvalues = new HashMap<>();
+        final List<Boolean> capturesLocal = new ArrayList<>(); // a Cell in the enclosing frame, or ...
+        final List<Integer> captureSlots = new ArrayList<>(); // ... one the enclosing closure captured
+
+        FunctionScope(FunctionScope enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private static class Scope {
+        final FunctionScope function;
+        final int firstSlot;
+        final Map<String, Variable> variables = new LinkedHashMap<>();
+
+        Scope(FunctionScope function) {
+            this.function = function;
+            this.firstSlot = function.nextSlot;
+        }
+    }
+
+    private static class Variable {
+        final FunctionScope function;
+        final int frameSlot;
+        boolean defined = false;
+        boolean captured = false;
+        boolean constant = false;
+        Expr.Literal literal = null; // the value of a const with a literal initializer
+        int assignments = 0;
+        final List<Location> declarations = new ArrayList<>(1);
+        final List<Location> uses = new ArrayList<>(); // in its own function
+
+        Variable(FunctionScope function, int frameSlot) {
+            this.function = function;
+            this.frameSlot = frameSlot;
+        }
+    }
 
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
+    private FunctionScope currentFunction = null;
+    private Set<String> initializerFields = null; // this.x = ... in the init being resolved
+    private List<String> superMethods = null; // super.x in the method being resolved and functions in it
+    // consts declared at top level so far, by name, to their value if it is a literal (null if not)
+    private final Map<String, Expr.Literal> globalConstants = new HashMap<>();
 
     private enum ClassType {
         NONE,
@@ -26,15 +98,40 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     private ClassType currentClassType = ClassType.NONE;
     private FunctionType currentFunctionType = FunctionType.NONE;
+    private boolean hadError = false;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private final GlobalSlots globalSlots; // numbers the globals of the family the program belongs to
+
+    public Resolver() {
+        this(GlobalSlots.DEFAULT);
+    }
+
+    public Resolver(GlobalSlots globalSlots) {
+        this.globalSlots = globalSlots;
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    private void error(int line, String lexeme, String message) {
+        hadError = true;
+        Lox.error(line, lexeme, message);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        if (isConstant(expr.name)) {
+            error(expr.line, expr.name, "Can't assign to a constant.");
+        }
+        Variable variable = resolveLocal(expr.name, (storage, slot) -> {
+            expr.storage = storage;
+            expr.slot = slot;
+        });
+        if (variable != null) {
+            variable.assignments++;
+        }
         return null;
     }
 
@@ -64,28 +161,50 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitSetExpr(Expr.Set expr) {
         resolve(expr.value);
         resolve(expr.object);
+        if (initializerFields != null && expr.object instanceof Expr.This) {
+            initializerFields.add(expr.name);
+        }
         return null;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
         if (currentClassType == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class");
+            error(expr.line, "super", "Can't use 'super' outside of a class");
         }
         if (currentClassType != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class without super class");
+            error(expr.line, "super", "Can't use 'super' in a class without super class");
+        }
+        resolveLocal("super", (storage, slot) -> {
+            expr.storage = storage;
+            expr.slot = slot;
+        });
+        resolveLocal("this", (storage, slot) -> {
+            expr.thisStorage = storage;
+            expr.thisSlot = slot;
+        });
+        if (superMethods != null) {
+            // index in the methods the superclass resolves them to, see LoxClass.superMethods
+            int index = superMethods.indexOf(expr.method);
+            if (index < 0) {
+                index = superMethods.size();
+                superMethods.add(expr.method);
+            }
+            expr.index = index;
         }
-        resolveLocal(expr, expr.keyword);
         return null;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
         if (currentClassType == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside a class");
+            error(expr.line, "this", "Can't use 'this' outside a class");
         }
 
-        resolveLocal(expr, expr.keyword);
+        resolveLocal("this", (storage, slot) -> {
+            expr.storage = storage;
+            expr.slot = slot;
+        });
         return null;
     }
 
@@ -116,42 +235,172 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitVarExpr(Expr.Var expr) {
 
-        if (!scopes.empty() && scopes.peek().get(expr.name.getLexeme()) == Boolean.FALSE) {
+        Variable variable = scopes.empty() ? null : scopes.peek().variables.get(expr.name);
+        if (variable != null && !variable.defined) {
             // var a = a;
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            error(expr.line, expr.name, "Can't read local variable in its own initializer.");
+        }
+
+        Expr.Literal constant = constant(expr.name);
+        if (constant != null) {
+            expr.storage = CONSTANT;
+            expr.constant = constant.value;
+            return null;
         }
 
         // var a = b; resolveLocal(b, b)
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr.name, (storage, slot) -> {
+            expr.storage = storage;
+            expr.slot = slot;
+        });
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // the innermost variable called name in scope is a const
+    private boolean isConstant(String name) {
         for (int i = scopes.size() - 1; i >= 0; --i) {
-            if (scopes.get(i).containsKey(name.getLexeme())) {
-                interpreter.resolve(expr, scopes.size() - i - 1);
-                return ;
+            Variable variable = scopes.get(i).variables.get(name);
+            if (variable != null) {
+                return variable.constant;
+            }
+        }
+        return globalConstants.containsKey(name);
+    }
+
+    // the value to inline for name, null unless it is a const with a literal initializer
+    private Expr.Literal constant(String name) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            Variable variable = scopes.get(i).variables.get(name);
+            if (variable != null) {
+                return variable.literal;
+            }
+        }
+        return globalConstants.get(name);
+    }
+
+    // a literal, possibly negated or in parentheses
+    private static Expr.Literal literal(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return (Expr.Literal) expr;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return literal(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator == TokenType.MINUS) {
+            Expr.Literal operand = literal(((Expr.Unary) expr).right);
+            if (operand != null && operand.value instanceof Double) {
+                return new Expr.Literal(-(double) operand.value);
             }
         }
+        return null;
+    }
+
+    // null for globals
+    private Variable resolveLocal(String name, Location location) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            Variable variable = scopes.get(i).variables.get(name);
+            if (variable != null) {
+                if (variable.function == currentFunction) {
+                    variable.uses.add(location);
+                } else {
+                    variable.captured = true;
+                    location.set(UPVALUE, upvalue(currentFunction, variable));
+                }
+                return variable;
+            }
+        }
+        location.set(GLOBAL, globalSlots.slot(name));
+        return null;
+    }
+
+    // index of a free variable in the Cells a closure of function captures, the functions between it
+    // and the one declaring the variable capture it as well to pass it down
+    private static int upvalue(FunctionScope function, Variable variable) {
+        Integer index = function.upvalues.get(variable);
+        if (index != null) {
+            return index;
+        }
+        boolean local = function.enclosing == variable.function;
+        int slot = local ? variable.frameSlot : upvalue(function.enclosing, variable);
+        index = function.captureSlots.size();
+        function.upvalues.put(variable, index);
+        function.capturesLocal.add(local);
+        function.captureSlots.add(slot);
+        return index;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        Scope scope = endScope();
+        stmt.frameSize = scope.function.frameSize;
+        markCountedLoop(stmt, scope);
         return null;
     }
 
+    // { var i = a; while (i < b) { body; i = i + c; } } as Parser.forStmt builds it, with a literal c and
+    // a counter that lives in the frame and is only assigned by the increment
+    private static void markCountedLoop(Stmt.Block block, Scope scope) {
+        if (block.statements.length != 2 || !(block.statements[0] instanceof Stmt.Var)
+                || !(block.statements[1] instanceof Stmt.While)) {
+            return ;
+        }
+        Stmt.Var counter = (Stmt.Var) block.statements[0];
+        Stmt.While loop = (Stmt.While) block.statements[1];
+        Variable variable = scope.variables.get(counter.name);
+        if (counter.initializer == null || variable.captured || variable.assignments != 1) {
+            return ;
+        }
+
+        if (!(loop.condition instanceof Expr.Binary)) {
+            return ;
+        }
+        Expr.Binary condition = (Expr.Binary) loop.condition;
+        switch (condition.operator) {
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                break;
+            default:
+                return ;
+        }
+        if (!isVar(condition.left, counter.name) || !(loop.body instanceof Stmt.Block)) {
+            return ;
+        }
+
+        Stmt[] body = ((Stmt.Block) loop.body).statements;
+        if (body.length != 2 || !(body[1] instanceof Stmt.Expression)
+                || !(((Stmt.Expression) body[1]).expression instanceof Expr.Assign)) {
+            return ;
+        }
+        Expr.Assign increment = (Expr.Assign) ((Stmt.Expression) body[1]).expression;
+        if (!increment.name.equals(counter.name) || !(increment.value instanceof Expr.Binary)) {
+            return ;
+        }
+        Expr.Binary step = (Expr.Binary) increment.value;
+        loop.counted = (step.operator == TokenType.PLUS || step.operator == TokenType.MINUS)
+                && isVar(step.left, counter.name)
+                && step.right instanceof Expr.Literal && ((Expr.Literal) step.right).value instanceof Double;
+    }
+
+    private static boolean isVar(Expr expr, String name) {
+        return expr instanceof Expr.Var && ((Expr.Var) expr).name.equals(name);
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingclass = currentClassType;
         currentClassType = ClassType.CLASS;
-        declare(stmt.name);
+        locate(declare(stmt.name, stmt.line), stmt.name, (storage, slot) -> {
+            stmt.storage = storage;
+            stmt.slot = slot;
+        });
         define(stmt.name);
 
-        if (stmt.superclass != null && stmt.name.getLexeme().equals(stmt.superclass.name.getLexeme())) {
-            Lox.error(stmt.name, "A class cannot inherit.lox from itself.");
+        if (stmt.superclass != null && stmt.name.equals(stmt.superclass.name)) {
+            error(stmt.line, stmt.name, "A class cannot inherit.lox from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -159,34 +408,76 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             resolve(stmt.superclass);
         }
 
-        if (stmt.superclass != null) {
-            beginScope();
-            scopes.peek().put("super", true);
-        }
-
-        beginScope();
-        scopes.peek().put("this", true);
-        for (Stmt.Function function: stmt.method) {
+        for (Stmt.Function function: stmt.methods) {
             FunctionType functionType = FunctionType.METHOD;
-            if (function.name.getLexeme().equals("init")) {
+            if (function.name.equals("init")) {
                 functionType = FunctionType.INITIALIZER;
             }
             resolveFunction(function, functionType);
         }
-        endScope();
         currentClassType = enclosingclass;
-        if (stmt.superclass != null) {
-            endScope();
-        }
         return null;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        if (currentFunction == null) {
+            // a block in top-level code
+            currentFunction = new FunctionScope(null);
+        }
+        scopes.push(new Scope(currentFunction));
     }
 
-    private void endScope() {
-        scopes.pop();
+    // now that all uses are known, tell every declaration and use in the variable's own function
+    // whether it is kept in a Cell
+    private Scope endScope() {
+        Scope scope = scopes.pop();
+        for (Variable variable : scope.variables.values()) {
+            int storage = variable.captured ? CELL : FRAME;
+            for (Location declaration : variable.declarations) {
+                declaration.set(storage, variable.frameSlot);
+            }
+            for (Location use : variable.uses) {
+                use.set(storage, variable.frameSlot);
+            }
+        }
+        scope.function.nextSlot = scope.firstSlot;
+        if (scopes.empty()) {
+            currentFunction = null;
+        }
+        return scope;
+    }
+
+    // Parses and resolves the body of a function the Parser skipped, once. It was declared at top
+    // level, so it has no free variables. null if the body has errors (they are reported through
+    // Lox.error).
+    public static Stmt.Function compile(Stmt.Function declaration) {
+        LazyBody lazy = declaration.lazy;
+        synchronized (lazy) {
+            if (lazy.getCompiled() != null) {
+                return lazy.getCompiled();
+            }
+            Stmt[] body = lazy.parse();
+            if (body == null) {
+                return null;
+            }
+
+            Stmt.Function function = new Stmt.Function(declaration.name, declaration.line, declaration.params, body);
+            Resolver resolver = new Resolver(lazy.getGlobalSlots());
+            resolver.globalConstants.putAll(lazy.getConstants());
+            if (lazy.isMethod()) {
+                resolver.currentClassType = lazy.isSubclassMethod() ? ClassType.SUBCLASS : ClassType.CLASS;
+                resolver.resolveFunction(function, FunctionType.METHOD);
+            } else {
+                resolver.resolveFunction(function, FunctionType.FUNCTION);
+            }
+            if (resolver.hadError()) {
+                return null;
+            }
+            TypeInference.infer(function);
+            Superinstructions.fuse(function.body);
+            lazy.setCompiled(function);
+            return function;
+        }
     }
 
     public void resolve(List<Stmt> stmtList) {
@@ -195,6 +486,12 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    private void resolve(Stmt[] stmts) {
+        for (Stmt stmt : stmts) {
+            resolve(stmt);
+        }
+    }
+
     private void resolve(Stmt stmt) {
         stmt.accept(this);
     }
@@ -211,22 +508,77 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        locate(declare(stmt.name, stmt.line), stmt.name, (storage, slot) -> {
+            stmt.storage = storage;
+            stmt.slot = slot;
+        });
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
+        if (function.lazy != null) {
+            // resolved on its first call, see compile(), with the consts in scope now
+            function.lazy.setConstants(new HashMap<>(globalConstants));
+            function.lazy.setGlobalSlots(globalSlots);
+            return ;
+        }
         FunctionType enclosingType = currentFunctionType;
         currentFunctionType = type;
+        FunctionScope enclosingFunction = currentFunction;
+        Set<String> enclosingFields = initializerFields;
+        List<String> enclosingSuperMethods = superMethods;
+        FunctionScope resolving = new FunctionScope(enclosingFunction);
+        currentFunction = resolving;
+        initializerFields = type == FunctionType.INITIALIZER ? new LinkedHashSet<>() : null;
+        boolean method = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        if (method) {
+            superMethods = new ArrayList<>();
+        }
         beginScope();
-        for (Token param : function.params) {
-            declare(param);
-            define(param);
+        // a method gets the instance, and the superclass methods it calls in a subclass, like parameters
+        // before the others
+        if (method) {
+            declareImplicit("this", (storage, slot) -> {
+                function.thisStorage = storage;
+                function.thisSlot = slot;
+            });
+            if (currentClassType == ClassType.SUBCLASS) {
+                declareImplicit("super", (storage, slot) -> {
+                    function.superStorage = storage;
+                    function.superSlot = slot;
+                });
+            }
+        }
+        function.paramStorages = new int[function.params.length];
+        function.paramSlots = new int[function.params.length];
+        for (int i = 0; i < function.params.length; i++) {
+            int param = i;
+            declare(function.params[i], function.line).declarations.add((storage, slot) -> {
+                function.paramStorages[param] = storage;
+                function.paramSlots[param] = slot;
+            });
+            define(function.params[i]);
         }
         resolve(function.body);
         endScope();
+        function.frameSize = resolving.frameSize;
+        function.capturesLocal = new boolean[resolving.captureSlots.size()];
+        function.captureSlots = new int[resolving.captureSlots.size()];
+        for (int i = 0; i < function.captureSlots.length; i++) {
+            function.capturesLocal[i] = resolving.capturesLocal.get(i);
+            function.captureSlots[i] = resolving.captureSlots.get(i);
+        }
+        if (initializerFields != null) {
+            function.fields = initializerFields.toArray(new String[0]);
+        }
+        if (method) {
+            function.superMethods = superMethods.toArray(new String[0]);
+        }
+        currentFunction = enclosingFunction;
+        initializerFields = enclosingFields;
+        superMethods = enclosingSuperMethods;
         currentFunctionType = enclosingType;
     }
 
@@ -238,14 +590,22 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (!scopes.isEmpty()) {
+            error(stmt.line, "import", "Can only import at top level.");
+        }
+        return null;
+    }
+
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunctionType == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            error(stmt.line, "return", "Can't return from top-level code.");
         }
         if (stmt.value != null) {
             if (currentFunctionType == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer");
+                error(stmt.line, "return", "Can't return a value from an initializer");
             }
             resolve(stmt.value);
         }
@@ -260,30 +620,64 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        Variable variable = declare(stmt.name, stmt.line);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        locate(variable, stmt.name, (storage, slot) -> {
+            stmt.storage = storage;
+            stmt.slot = slot;
+        });
+        if (stmt.constant) {
+            Expr.Literal literal = literal(stmt.initializer);
+            if (variable == null) {
+                globalConstants.put(stmt.name, literal);
+            } else {
+                variable.constant = true;
+                variable.literal = literal;
+            }
+        }
         return null;
     }
 
-    private void declare(Token name) {
+    // null for globals
+    private Variable declare(String name, int line) {
         if (scopes.isEmpty()) {
-            return ;
+            if (globalConstants.containsKey(name)) {
+                error(line, name, "Already a constant with this name.");
+            }
+            return null;
         }
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.getLexeme())) {
-            Lox.error(name, "Already variable with this name in this scope.");
+        Scope scope = scopes.peek();
+        if (scope.variables.containsKey(name)) {
+            error(line, name, "Already variable with this name in this scope.");
         }
-        scope.put(name.getLexeme(), false); // not ready
+        Variable variable = new Variable(currentFunction, currentFunction.nextSlot++); // not ready
+        currentFunction.frameSize = Math.max(currentFunction.frameSize, currentFunction.nextSlot);
+        scope.variables.put(name, variable);
+        return variable;
     }
 
-    private void define(Token name) {
+    private void declareImplicit(String name, Location declaration) {
+        Variable variable = declare(name, 0);
+        variable.defined = true;
+        variable.declarations.add(declaration);
+    }
+
+    private void define(String name) {
         if (scopes.isEmpty()) {
             return ;
         }
-        scopes.peek().put(name.getLexeme(), true); // alive
+        scopes.peek().variables.get(name).defined = true; // alive
+    }
+
+    private void locate(Variable variable, String name, Location declaration) {
+        if (variable == null) {
+            declaration.set(GLOBAL, globalSlots.slot(name));
+        } else {
+            variable.declarations.add(declaration);
+        }
     }
 
     @Override
@@ -292,4 +686,36 @@ public class Resolver implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         resolve(stmt.body);
         return null;
     }
+
+    // superinstructions are made after resolution (see optimizer.Superinstructions), so they are
+    // only found in resolved code, which resolves as the statement they replace
+    @Override
+    public Void visitIncrementStmt(Stmt.Increment stmt) {
+        resolve(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitAddAssignStmt(Stmt.AddAssign stmt) {
+        resolve(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareIfStmt(Stmt.CompareIf stmt) {
+        resolve(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnCallStmt(Stmt.ReturnCall stmt) {
+        resolve(stmt.original);
+        return null;
+    }
+
+    @Override
+    public Void visitScalarStmt(Stmt.Scalar stmt) {
+        resolve(stmt.original);
+        return null;
+    }
 }
@@ -0,0 +1,79 @@
+package org.craftinginterpreter.jlox.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+// jlox client: has a running jlox serve run a script, prints what it prints as it comes and returns the
+// exit code jlox would have exited with. The script is "-" to send the source on stdin instead of a path.
+public class LoxClient {
+    // nothing listening on the port
+    public static final int UNAVAILABLE = 69;
+    // the server closed the connection without an exit code
+    public static final int PROTOCOL_ERROR = LoxServer.PROTOCOL_ERROR;
+
+    private LoxClient() {
+    }
+
+    public static int run(String script, int port, PrintStream out) throws IOException {
+        int kind = LoxServer.PATH;
+        byte[] request;
+        if (script.equals("-")) {
+            kind = LoxServer.SOURCE;
+            request = readAll(System.in);
+        } else {
+            request = Paths.get(script).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (ConnectException e) {
+            out.println("Can't connect to jlox serve on port " + port + ".");
+            return UNAVAILABLE;
+        }
+        try (Socket connection = socket) {
+            DataOutputStream requests = new DataOutputStream(connection.getOutputStream());
+            requests.writeInt(kind);
+            requests.writeInt(request.length);
+            requests.write(request);
+            requests.flush();
+
+            DataInputStream responses = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            while (true) {
+                int frame = responses.readByte();
+                if (frame == LoxServer.EXIT) {
+                    out.flush();
+                    return responses.readInt();
+                }
+                byte[] output = new byte[responses.readInt()];
+                responses.readFully(output);
+                out.write(output);
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // the server went away before the EXIT frame, the script may not have run to the end
+            out.println("jlox serve closed the connection before the script ended.");
+            return PROTOCOL_ERROR;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
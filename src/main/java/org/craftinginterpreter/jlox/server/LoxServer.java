@@ -0,0 +1,326 @@
+package org.craftinginterpreter.jlox.server;
+
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.engine.LoxContext;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// jlox serve: runs scripts for LoxClient in a JVM that stays up, so jobs don't pay for starting one and
+// run on an interpreter the JIT compiled already (see warmUp). Listens on the loopback interface only, but
+// doesn't know who connects: any local user's process can have it run a script, and a PATH request can
+// name any file the server's user can read. Compile errors quote the file, so its contents can leak back
+// to the client; don't serve as a user with files other local users must not read.
+// A job runs on one of the worker threads, in a LoxContext of its own, so jobs never see each other's
+// globals; compiled programs are kept by their source and shared by the jobs running them.
+// The engine numbers every global name its programs mention and keeps the numbers (see GlobalSlots), so
+// once it numbered MAX_GLOBAL_NAMES the server starts over with a new engine and an empty program cache.
+// A job is stopped, and exits with 70, once it ran for -Djlox.jobtimeout milliseconds (60000 by default, 0
+// for no limit) or once what it prints can't be sent because the client went away.
+// Protocol, one job per connection, ints big-endian, text UTF-8:
+//   request   int PATH or SOURCE, int length (at most MAX_REQUEST), the path or the source
+//   response  any number of: byte OUTPUT, int length, what the script printed
+//             then: byte EXIT, int exit code as jlox would exit with (0, 65, 70, 66 if the file can't be read),
+//             or PROTOCOL_ERROR for a request that breaks the protocol
+public class LoxServer implements Closeable {
+    public static final int DEFAULT_PORT = 7878;
+
+    static final int PATH = 0;
+    static final int SOURCE = 1;
+    static final int OUTPUT = 'O';
+    static final int EXIT = 'X';
+
+    static final int CANT_READ = 66;
+    static final int PROTOCOL_ERROR = 76;
+
+    static final int MAX_REQUEST = 64 << 20;
+
+    private static final int CACHED_PROGRAMS = 256;
+    static final int MAX_GLOBAL_NAMES = 4096;
+
+    // exercises calls, arithmetic, strings, classes and fields until the interpreter is compiled
+    private static final String WARM_UP =
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n" +
+            "class Point { init(x, y) { this.x = x; this.y = y; } sum() { return this.x + this.y; } }\n" +
+            "var s = \"\";\n" +
+            "for (var i = 0; i < 200; i = i + 1) { var p = Point(i, fib(10)); s = s + \"x\"; print p.sum(); }\n";
+
+    // an engine and the programs it compiled, replaced together
+    private static class Generation {
+        final LoxEngine engine = new LoxEngine();
+        // least recently used dropped first
+        final Map<String, CompiledProgram> programs = Collections.synchronizedMap(
+                new LinkedHashMap<String, CompiledProgram>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CompiledProgram> eldest) {
+                        return size() > CACHED_PROGRAMS;
+                    }
+                });
+    }
+
+    private volatile Generation generation = new Generation();
+    private final ExecutorService workers;
+    private volatile ServerSocket listening;
+    private final long jobTimeout; // milliseconds, 0 for no limit
+    private final ScheduledThreadPoolExecutor timeouts;
+
+    public LoxServer(int threads) {
+        this(threads, Long.getLong("jlox.jobtimeout", 60000));
+    }
+
+    public LoxServer(int threads, long jobTimeout) {
+        // daemons, the thread in serve() is what keeps the server up
+        this.workers = Executors.newFixedThreadPool(threads, job -> {
+            Thread worker = new Thread(job, "jlox-worker");
+            worker.setDaemon(true);
+            return worker;
+        });
+        this.jobTimeout = jobTimeout;
+        this.timeouts = new ScheduledThreadPoolExecutor(1, timer -> {
+            Thread thread = new Thread(timer, "jlox-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // jobs that finish in time don't leave their timeout queued
+        timeouts.setRemoveOnCancelPolicy(true);
+    }
+
+    // runs the warm up script for about millis
+    public void warmUp(long millis) {
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        long end = System.nanoTime() + millis * 1_000_000;
+        LoxEngine engine = generation.engine;
+        try {
+            CompiledProgram program = engine.compile(WARM_UP);
+            while (System.nanoTime() < end) {
+                engine.newContext(discard, Paths.get("").toAbsolutePath()).run(program);
+            }
+        } catch (LoxException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    // listens on port, 0 for any free one, and returns the port. Clients can connect from now on, their
+    // jobs run once serve() accepts them.
+    public int bind(int port) throws IOException {
+        listening = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        return listening.getLocalPort();
+    }
+
+    public void serve(int port) throws IOException {
+        bind(port);
+        serve();
+    }
+
+    // accepts jobs on the port bind() listens on until close(), then lets the running ones finish
+    public void serve() throws IOException {
+        try (ServerSocket server = listening) {
+            while (true) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    if (server.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                workers.execute(() -> handle(socket));
+            }
+        } finally {
+            workers.shutdown();
+            timeouts.shutdown();
+        }
+    }
+
+    // stops serve()
+    @Override
+    public void close() throws IOException {
+        if (listening != null) {
+            listening.close();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket connection = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            int kind = in.readInt();
+            int length = in.readInt();
+
+            FrameOutputStream frames = new FrameOutputStream(out);
+            PrintStream print = frames.print;
+            int exitCode;
+            if (kind != PATH && kind != SOURCE) {
+                print.println("Unknown request kind " + kind + ".");
+                exitCode = PROTOCOL_ERROR;
+            } else if (length < 0 || length > MAX_REQUEST) {
+                print.println("Requests are limited to " + MAX_REQUEST + " bytes.");
+                exitCode = PROTOCOL_ERROR;
+            } else {
+                byte[] request = new byte[length];
+                in.readFully(request);
+                exitCode = run(kind, new String(request, StandardCharsets.UTF_8), frames);
+            }
+            print.flush();
+            out.writeByte(EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, nothing to tell it
+        }
+    }
+
+    // what jlox would print and exit with
+    int run(int kind, String request, FrameOutputStream frames) {
+        PrintStream out = frames.print;
+        String source = request;
+        Path baseDir = Paths.get("").toAbsolutePath();
+        if (kind == PATH) {
+            Path file = Paths.get(request).toAbsolutePath();
+            try {
+                // like jlox reads it (see Lox.runFile)
+                source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+            } catch (IOException e) {
+                out.println("Can't read '" + request + "'.");
+                return CANT_READ;
+            }
+            baseDir = file.getParent();
+        }
+
+        try {
+            Generation current = generation();
+            CompiledProgram program = current.programs.get(source);
+            if (program == null) {
+                program = current.engine.compile(source);
+                current.programs.put(source, program);
+            }
+            LoxContext context = current.engine.newContext(out, baseDir);
+            frames.onFailure = () -> context.stop("The client went away.");
+            ScheduledFuture<?> timeout = null;
+            if (jobTimeout > 0) {
+                timeout = timeouts.schedule(() -> context.stop("The job ran longer than " + jobTimeout + " ms."),
+                        jobTimeout, TimeUnit.MILLISECONDS);
+            }
+            try {
+                context.run(program);
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+            return 0;
+        } catch (LoxException e) {
+            for (String error : e.getErrors()) {
+                out.println(error);
+            }
+            return e.getExitCode();
+        } catch (RuntimeException e) {
+            // a bug of the interpreter, the job fails like a runtime error and the server goes on
+            out.println("Internal error: " + e + ".");
+            return LoxException.RUNTIME_ERROR;
+        }
+    }
+
+    // jobs still running on the one replaced keep its engine and programs until they are done
+    private Generation generation() {
+        Generation current = generation;
+        if (current.engine.globalNames() > MAX_GLOBAL_NAMES) {
+            synchronized (this) {
+                if (generation == current) {
+                    generation = new Generation();
+                }
+                current = generation;
+            }
+        }
+        return current;
+    }
+
+    // what is written between two flushes goes out as one OUTPUT frame. Once a frame can't be sent,
+    // everything written after it is dropped and onFailure runs, once.
+    static class FrameOutputStream extends OutputStream {
+        final PrintStream print;
+        Runnable onFailure = () -> { };
+        private final DataOutputStream out;
+        private byte[] buffer = new byte[256];
+        private int size = 0;
+        private boolean failed = false;
+
+        FrameOutputStream(DataOutputStream out) throws UnsupportedEncodingException {
+            this.out = out;
+            this.print = new PrintStream(this, true, "UTF-8");
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (failed) {
+                return ;
+            }
+            if (size + len > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(size + len, buffer.length * 2));
+            }
+            System.arraycopy(b, off, buffer, size, len);
+            size += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size == 0 || failed) {
+                return ;
+            }
+            int length = size;
+            size = 0;
+            try {
+                out.writeByte(OUTPUT);
+                out.writeInt(length);
+                out.write(buffer, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                failed = true;
+                buffer = new byte[0];
+                onFailure.run();
+                throw e;
+            }
+        }
+    }
+}
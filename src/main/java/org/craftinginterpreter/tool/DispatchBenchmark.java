@@ -0,0 +1,92 @@
+package org.craftinginterpreter.tool;
+
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.executor.Interpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compares the two ways Interpreter can dispatch on AST nodes: the accept() visitor and the switch on
+// node kinds. Every script runs in a fresh JVM per style, like it would from the command line, so the JIT
+// only ever sees one dispatch style and one program. It is run over and over for a fixed time after a
+// warm up, output discarded.
+// usage: DispatchBenchmark [script...], defaults to the samples in src/main/resources
+public class DispatchBenchmark {
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--run")) {
+            run(Arrays.copyOfRange(args, 1, args.length));
+            return ;
+        }
+
+        List<String> scripts = new ArrayList<>(Arrays.asList(args));
+        if (scripts.isEmpty()) {
+            try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get("src/main/resources"), "*.lox")) {
+                for (Path sample : samples) {
+                    scripts.add(sample.toString());
+                }
+            }
+        }
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (String script : scripts) {
+            for (String dispatch : new String[] {"visitor", "switch"}) {
+                new ProcessBuilder(java, "-Djlox.dispatch=" + dispatch, "-cp", System.getProperty("java.class.path"),
+                        DispatchBenchmark.class.getName(), "--run", script).inheritIO().start().waitFor();
+            }
+        }
+    }
+
+    private static void run(String[] scripts) throws IOException {
+        String dispatch = System.getProperty("jlox.dispatch");
+        PrintStream out = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+
+        for (String script : scripts) {
+            String source = new String(Files.readAllBytes(Paths.get(script)));
+            System.setOut(discard);
+            CompiledProgram program = CompiledProgram.compile(source);
+            if (program == null) {
+                System.setOut(out);
+                out.printf("%-8s %-24s compile error, skipped%n", dispatch, Paths.get(script).getFileName());
+                continue;
+            }
+
+            runFor(program, WARMUP_NANOS);
+            long runs = runFor(program, MEASURE_NANOS);
+            System.setOut(out);
+            out.printf("%-8s %-24s %10.1f runs/s%n", dispatch, Paths.get(script).getFileName(),
+                    runs * 1e9 / MEASURE_NANOS);
+        }
+    }
+
+    private static long runFor(CompiledProgram program, long nanos) {
+        long runs = 0;
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(program.getStatements());
+            runs++;
+        }
+        return runs;
+    }
+}
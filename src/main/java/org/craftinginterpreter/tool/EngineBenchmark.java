@@ -0,0 +1,91 @@
+package org.craftinginterpreter.tool;
+
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.engine.LoxContext;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// How runs of one script scale with threads: the script is compiled once and run over and over, each run
+// in a new LoxContext, on pools of 1, 2, 4... threads up to the number of cores, output discarded.
+// usage: EngineBenchmark script
+public class EngineBenchmark {
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("usage: EngineBenchmark script");
+            System.exit(64);
+        }
+        Path script = Paths.get(args[0]);
+        LoxEngine engine = new LoxEngine();
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        CompiledProgram program;
+        try {
+            program = engine.compile(script);
+            // a script that fails would measure how fast it fails
+            engine.newContext(discard, script.toAbsolutePath().getParent()).run(program);
+        } catch (LoxException e) {
+            System.out.println(e.getMessage());
+            System.exit(e.getExitCode());
+            return ;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        runFor(engine, program, discard, cores, WARMUP_NANOS, script);
+        double single = 0;
+        for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(threads * 2, cores)) {
+            double rate = runFor(engine, program, discard, threads, MEASURE_NANOS, script) * 1e9 / MEASURE_NANOS;
+            if (threads == 1) {
+                single = rate;
+            }
+            System.out.printf("%-24s %3d threads %10.1f runs/s %6.2fx%n", script.getFileName(), threads, rate,
+                    rate / single);
+        }
+    }
+
+    private static long runFor(LoxEngine engine, CompiledProgram program, PrintStream out, int threads, long nanos,
+                               Path script) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicLong runs = new AtomicLong();
+        long end = System.nanoTime() + nanos;
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    while (System.nanoTime() < end) {
+                        LoxContext context = engine.newContext(out, script.toAbsolutePath().getParent());
+                        context.run(program);
+                        runs.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return runs.get();
+    }
+}
@@ -12,31 +12,50 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
+        // nodes keep only what execution and error reporting need: interned names and int lines
+        // instead of Tokens, and exactly sized arrays instead of lists.
+        // Fields after '|' are filled in by the Resolver, see there for what they mean, numeric by
+        // optimizer.TypeInference, fieldSlot and scalarSlots by optimizer.ScalarReplacement.
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Assign   : String name, int line, Expr value | int storage, int slot",
+                "Binary   : Expr left, TokenType operator, int line, Expr right | boolean numeric",
+                "Call     : Expr callee, int line, Expr[] arguments",
+                "Get      : Expr object, String name, int line | int fieldSlot",
+                "Set      : Expr object, String name, int line, Expr value | int fieldSlot",
+                "Super    : String method, int line | int storage, int slot, int thisStorage, int thisSlot, int index",
+                "This     : int line | int storage, int slot",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
-                "Logical  : Expr left, Token operator, Expr right",
-                "Unary    : Token operator, Expr right",
-                "Var      : Token name"
+                "Logical  : Expr left, TokenType operator, Expr right",
+                "Unary    : TokenType operator, int line, Expr right | boolean numeric",
+                "Var      : String name, int line | int storage, int slot, Object constant"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr.Var superclass, List<Stmt.Function> method",
+                "Block      : Stmt[] statements | int frameSize",
+                "Class      : String name, int line, Expr.Var superclass, Stmt.Function[] methods | int storage, int slot",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : String name, int line, String[] params, Stmt[] body"
+                        + " | int storage, int slot, int frameSize, int scalarSlots, int[] paramStorages, int[] paramSlots,"
+                        + " int thisStorage, int thisSlot, int superStorage, int superSlot,"
+                        + " boolean[] capturesLocal, int[] captureSlots, String[] fields, String[] superMethods,"
+                        + " LazyBody lazy",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-                "Return     : Token keyword, Expr value",
+                "Import     : String path, int line",
+                "Return     : int line, Expr value",
                 "Print      : Expr expression",
-                "Var        : Token name, Expr initializer",
-                "While      : Expr condition, Stmt body"
+                "Var        : String name, int line, Expr initializer, boolean constant | int storage, int slot",
+                "While      : Expr condition, Stmt body | boolean counted",
+                // superinstructions, fused from the statement in original after resolution (see
+                // optimizer.Superinstructions): x = x + number, x = x + expr, if (a < b) and return f(x)
+                "Increment  : Stmt.Expression original, Expr.Assign target, double delta",
+                "AddAssign  : Stmt.Expression original, Expr.Assign target, Expr operand",
+                "CompareIf  : Stmt.If original, Expr.Binary condition, Stmt thenBranch, Stmt elseBranch",
+                "ReturnCall : Stmt.Return original, Expr.Call call",
+                // var x = C(...) with the instance replaced by locals for its fields (see
+                // optimizer.ScalarReplacement)
+                "Scalar     : Stmt.Var original, Expr.Call call, Stmt.Class type, int[] fieldSlots,"
+                        + " int[] arguments, Object[] literals"
         ));
     }
 
@@ -46,13 +65,14 @@ public class GenerateAst {
 
         printWriter.println("package org.craftinginterpreter.jlox.ast;");
         printWriter.println();
-        printWriter.println("import java.util.List;");
-        printWriter.println();
-        printWriter.println("import org.craftinginterpreter.jlox.scanner.Token;");
-        printWriter.println();
+        if (types.toString().contains("TokenType")) {
+            printWriter.println("import org.craftinginterpreter.jlox.scanner.TokenType;");
+            printWriter.println();
+        }
         printWriter.println("public abstract class " + baseName + " {");
 
         defineVisitor(printWriter, baseName, types);
+        defineKinds(printWriter, baseName, types);
 
         for (String type: types) {
             String className = type.split(":")[0].trim();
@@ -69,8 +89,14 @@ public class GenerateAst {
     }
 
     private static void defineType(PrintWriter printWriter, String baseName, String className, String fields) {
+        String resolved = null;
+        if (fields.contains("|")) {
+            resolved = fields.split("\\|")[1].trim();
+            fields = fields.split("\\|")[0].trim();
+        }
         printWriter.println("  public static class " + className + " extends " + baseName + " {");
         printWriter.println("    public " + className + "(" + fields + ") {");
+        printWriter.println("      super(" + className.toUpperCase() + ");");
         String[] fieldList = fields.split(", ");
         for (String field: fieldList) {
             String name = field.split(" ")[1];
@@ -85,9 +111,32 @@ public class GenerateAst {
         printWriter.println("    }");
 
         for (String field: fieldList) {
-            printWriter.println("    public final " +  field + ";");
+            // lines stay writable so an edited document can move a reused declaration
+            String modifier = field.split(" ")[1].equals("line") ? "public " : "public final ";
+            printWriter.println("    " + modifier + field + ";");
+        }
+        if (resolved != null) {
+            printWriter.println();
+            for (String field: resolved.split(", ")) {
+                printWriter.println("    public " + field + ";");
+            }
+        }
+        printWriter.println("  }");
+    }
+
+    // an int tag per node class, see Visitor.dispatch()
+    private static void defineKinds(PrintWriter printWriter, String baseName, List<String> types) {
+        for (int i = 0; i < types.size(); i++) {
+            String typeName = types.get(i).split(":")[0].trim();
+            printWriter.println("  public static final int " + typeName.toUpperCase() + " = " + i + ";");
         }
+        printWriter.println();
+        printWriter.println("  public final int kind;");
+        printWriter.println();
+        printWriter.println("  protected " + baseName + "(int kind) {");
+        printWriter.println("    this.kind = kind;");
         printWriter.println("  }");
+        printWriter.println();
     }
 
     private static void defineVisitor(PrintWriter printWriter, String baseName, List<String> types) {
@@ -96,6 +145,22 @@ public class GenerateAst {
             String typeName = type.split(":")[0].trim();
             printWriter.println("    public R visit" + typeName + baseName + "(" + typeName + " " + baseName.toLowerCase() + ");");
         }
+
+        // a switch on the kind tag instead of the accept() call, which is megamorphic at every call site
+        // and can't be inlined. The calls in here are only monomorphic as long as a single hot visitor
+        // uses dispatch(), so cold passes keep using accept().
+        String argument = baseName.toLowerCase();
+        printWriter.println();
+        printWriter.println("    default R dispatch(" + baseName + " " + argument + ") {");
+        printWriter.println("      switch (" + argument + ".kind) {");
+        for (String type: types) {
+            String typeName = type.split(":")[0].trim();
+            printWriter.println("        case " + typeName.toUpperCase() + ": return visit" + typeName + baseName
+                    + "((" + typeName + ") " + argument + ");");
+        }
+        printWriter.println("      }");
+        printWriter.println("      throw new IllegalStateException(\"Unknown kind \" + " + argument + ".kind);");
+        printWriter.println("    }");
         printWriter.println("  }");
     }
 }
@@ -0,0 +1,93 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.executor.Interpreter;
+import org.craftinginterpreter.jlox.incremental.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+public class DocumentTest {
+    private static final String SOURCE =
+            "fun add(a, b) { return a + b; }\n" +
+            "var x = add(1, 2);\n" +
+            "if (x > 2) print x;\n" +
+            "var y = x * 2;\n" +
+            "print y;\n";
+
+    @Test
+    public void testEditReparsesOnlyTouchedDeclaration() {
+        Document document = new Document(SOURCE);
+        Assert.assertEquals(document.getDeclarationCount(), 5);
+        List<Stmt> before = document.getStatements();
+
+        // var x = add(1, 2); -> var x = add(10, 2);
+        document.edit(SOURCE.indexOf("1, 2"), 1, "10");
+        List<Stmt> after = document.getStatements();
+        Assert.assertEquals(document.getReparsedCount(), 1);
+        Assert.assertSame(before.get(0), after.get(0));
+        Assert.assertNotSame(before.get(1), after.get(1));
+        Assert.assertSame(before.get(3), after.get(3));
+        Assert.assertEquals(run(document), "12\n24\n");
+    }
+
+    @Test
+    public void testEditShiftsLinesOfReusedDeclarations() {
+        Document document = new Document(SOURCE);
+        Stmt.Var y = (Stmt.Var) document.getStatements().get(3);
+        Assert.assertEquals(y.line, 4);
+
+        document.edit(SOURCE.indexOf("var x"), 0, "\n\n");
+        Assert.assertEquals(document.getReparsedCount(), 1);
+        Assert.assertSame(document.getStatements().get(3), y);
+        Assert.assertEquals(y.line, 6);
+
+        // lines moved by several edits reach the nodes once they are handed out
+        document.edit(0, 0, "\n\n\n");
+        document.edit(0, 1, "");
+        Assert.assertSame(document.getStatements().get(3), y);
+        Assert.assertEquals(y.line, 8);
+    }
+
+    @Test
+    public void testEditExtendingAStatementThroughLookahead() {
+        Document document = new Document(SOURCE);
+        int end = SOURCE.indexOf("print x;") + "print x;".length();
+        document.edit(end, 0, " else print 0;");
+        Assert.assertEquals(document.getDeclarationCount(), 5);
+        Assert.assertNotNull(((Stmt.If) document.getStatements().get(2)).elseBranch);
+
+        document.edit(0, document.getSource().indexOf("var x"), "");
+        Assert.assertEquals(document.getDeclarationCount(), 4);
+    }
+
+    @Test
+    public void testTypingNamesKeepsTheGlobalSlotsBounded() {
+        Document document = new Document(SOURCE);
+        int offset = document.getSource().indexOf("print y;") + "print ".length();
+        // print y; -> print ya; -> print yaa; ..., every keystroke resolves a name never seen before
+        for (int i = 0; i < 5000; i++) {
+            document.edit(offset + 1 + i, 0, "a");
+        }
+        Assert.assertTrue(document.getGlobalSlots().size() < 1000);
+
+        document.edit(offset + 1, 5000, "");
+        Assert.assertEquals(run(document), "3\n6\n");
+    }
+
+    private static String run(Document document) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer));
+        try {
+            Interpreter interpreter = new Interpreter(System.out, document.getGlobalSlots());
+            interpreter.interpret(document.getStatements());
+        } finally {
+            System.setOut(out);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.engine.LoxContext;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+
+public class ForkTest {
+    private static final String PRELUDE =
+            "class Table { init() { this.hits = 0; } }\n" +
+            "var table = Table();\n" +
+            "var requests = 0;\n" +
+            "fun counter() { var n = 0; fun next() { n = n + 1; return n; } return next; }\n" +
+            "var next = counter();\n";
+    private static final String REQUEST =
+            "requests = requests + 1; table.hits = table.hits + 1; table.extra = next(); print table.hits + requests + next();";
+
+    private final LoxEngine engine = new LoxEngine();
+
+    private static String output(ByteArrayOutputStream out) {
+        return out.toString().replace("\r", "").trim();
+    }
+
+    @Test
+    public void testForksDontSeeEachOthersWrites() throws LoxException {
+        LoxContext prelude = engine.newContext(new PrintStream(new ByteArrayOutputStream()), Paths.get(""));
+        prelude.run(engine.compile(PRELUDE));
+
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            LoxContext request = prelude.fork(new PrintStream(out, true));
+            request.run(engine.compile(REQUEST));
+            // 1 hit + 1 request + the closure's second count
+            Assert.assertEquals(output(out), "4");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoxContext check = prelude.fork(new PrintStream(out, true));
+        check.run(engine.compile("print table.hits + requests + next();"));
+        Assert.assertEquals(output(out), "1");
+    }
+
+    @Test
+    public void testForksOfForksKeepTheirParentsWrites() throws LoxException {
+        LoxContext prelude = engine.newContext(new PrintStream(new ByteArrayOutputStream()), Paths.get(""));
+        prelude.run(engine.compile(PRELUDE));
+        LoxContext child = prelude.fork(new PrintStream(new ByteArrayOutputStream()));
+        child.run(engine.compile("table.hits = 10; next();"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoxContext grandchild = child.fork(new PrintStream(out, true));
+        grandchild.run(engine.compile("table.hits = table.hits + 1; print table.hits; print next();"));
+        Assert.assertEquals(output(out), "11\n2");
+
+        out = new ByteArrayOutputStream();
+        child.fork(new PrintStream(out, true)).run(engine.compile("print table.hits; print next();"));
+        Assert.assertEquals(output(out), "10\n2");
+    }
+}
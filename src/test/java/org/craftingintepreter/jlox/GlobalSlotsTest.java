@@ -0,0 +1,70 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.engine.LoxContext;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+import org.craftinginterpreter.jlox.semanticanalysis.GlobalSlots;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+
+public class GlobalSlotsTest {
+    @Test
+    public void testNamesKeepTheirNumbers() {
+        GlobalSlots slots = new GlobalSlots();
+        int a = slots.slot("a");
+        int b = slots.slot("b");
+        Assert.assertTrue(a != b);
+        Assert.assertEquals(slots.slot("a"), a);
+        Assert.assertEquals(slots.name(b), "b");
+        Assert.assertEquals(slots.size(), 2);
+    }
+
+    @Test
+    public void testEachEngineNumbersItsOwnNames() throws Exception {
+        LoxEngine first = new LoxEngine();
+        LoxEngine second = new LoxEngine();
+        int names = second.globalNames();
+        CompiledProgram program = first.compile("var onlyInTheFirstEngine = 1;");
+        Assert.assertEquals(second.globalNames(), names);
+        Assert.assertTrue(first.globalNames() > names);
+
+        try {
+            second.newContext().run(program);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(e.getMessage(), "The program was compiled by another LoxEngine.");
+        }
+    }
+
+    @Test
+    public void testGlobalsNativesAndUndefinedNames() throws Exception {
+        LoxEngine engine = new LoxEngine();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext(new PrintStream(out, true), Paths.get("."));
+        context.define("given", 40.0);
+        context.run(engine.compile("var a = given; fun add() { a = a + 1; } add(); add(); print a; print clock() > 0;"));
+        context.run(engine.compile("print a;"));
+        Assert.assertEquals(out.toString().replace("\r", ""), "42\ntrue\n42\n");
+        Assert.assertEquals(context.get("a"), 42.0);
+
+        try {
+            context.run(engine.compile("fun f() { return missing; } f();"));
+            Assert.fail();
+        } catch (LoxException e) {
+            Assert.assertEquals(e.getExitCode(), LoxException.RUNTIME_ERROR);
+            Assert.assertTrue(e.getErrors().get(0).contains("Undefined variable 'missing'."));
+        }
+        // a name numbered by another program is still undefined in a context that never defined it
+        try {
+            engine.newContext().run(engine.compile("print a;"));
+            Assert.fail();
+        } catch (LoxException e) {
+            Assert.assertTrue(e.getErrors().get(0).contains("Undefined variable 'a'."));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.executor.HeapSnapshot;
+import org.craftinginterpreter.jlox.executor.Interpreter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class HeapSnapshotTest {
+    private static final String PRELUDE =
+            "class Node { init(value, next) { this.value = value; this.next = next; } }\n" +
+            "class Base { name() { return \"base\"; } }\n" +
+            "class Derived < Base { name() { var s = super.name; fun outer() { return \"derived \" + s(); } return outer; } }\n" +
+            "fun counter() { var n = 0; fun next() { n = n + 1; return n; } return next; }\n" +
+            "var list = nil;\n" +
+            "for (var i = 1; i <= 3; i = i + 1) list = Node(i, list);\n" +
+            "var loop = Node(0, nil); loop.next = loop; loop.extra = \"x\";\n" +
+            "var next = counter(); next();\n" +
+            "var alias = next;\n" +
+            "var name = Derived().name();\n" +
+            "const limit = 10;\n" +
+            "var now = clock;\n";
+    private static final String CHECK =
+            "print list.value + list.next.value + list.next.next.value;\n" +
+            "print loop.next.next.extra;\n" +
+            "print next(); print alias();\n" +
+            "print name();\n" +
+            "print limit;\n" +
+            "print now == clock;\n" +
+            "print Node(4, nil).value;\n";
+
+    private static String run(Interpreter interpreter, String source) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Interpreter printing = interpreter.fork(new PrintStream(out, true));
+        printing.interpret(CompiledProgram.compile(source).getStatements());
+        return out.toString().replace("\r", "");
+    }
+
+    @Test
+    public void testGlobalsAreRestored() throws IOException {
+        Interpreter saved = new Interpreter(new PrintStream(new ByteArrayOutputStream()));
+        saved.interpret(CompiledProgram.compile(PRELUDE).getStatements());
+        Path snapshot = Files.createTempFile("heap", ".snap");
+        HeapSnapshot.save(saved, snapshot);
+
+        Interpreter loaded = new Interpreter(new PrintStream(new ByteArrayOutputStream()));
+        HeapSnapshot.load(loaded, snapshot);
+        // the cycle, the shared closure and the super method of the captured bound method survive
+        Assert.assertEquals(run(loaded, CHECK), "6\nx\n2\n3\nderived base\n10\ntrue\n4\n");
+        Assert.assertEquals(run(loaded, CHECK), run(saved, CHECK));
+        Files.delete(snapshot);
+    }
+
+    @Test
+    public void testUnreadableSnapshotsAreRejected() throws IOException {
+        Path snapshot = Files.createTempFile("heap", ".snap");
+        Files.write(snapshot, "not a snapshot".getBytes());
+        try {
+            HeapSnapshot.load(new Interpreter(), snapshot);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Not a snapshot.");
+        }
+
+        Interpreter saved = new Interpreter(new PrintStream(new ByteArrayOutputStream()));
+        saved.interpret(CompiledProgram.compile(PRELUDE).getStatements());
+        HeapSnapshot.save(saved, snapshot);
+        byte[] data = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(data, data.length - 10));
+        try {
+            HeapSnapshot.load(new Interpreter(), snapshot);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Corrupt snapshot.");
+        }
+        Files.delete(snapshot);
+    }
+}
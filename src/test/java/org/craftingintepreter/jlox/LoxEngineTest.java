@@ -0,0 +1,93 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.engine.LoxContext;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LoxEngineTest {
+    private final LoxEngine engine = new LoxEngine();
+
+    private LoxContext context(ByteArrayOutputStream out) {
+        return engine.newContext(new PrintStream(out, true), Paths.get("").toAbsolutePath());
+    }
+
+    @Test
+    public void testContextsHaveTheirOwnGlobalsAndOutput() throws LoxException {
+        CompiledProgram program = engine.compile("var n = 0; fun bump() { n = n + 1; print n; } bump();");
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        LoxContext a = context(first);
+        LoxContext b = context(second);
+
+        a.run(program);
+        a.run(engine.compile("bump();"));
+        b.run(program);
+        Assert.assertEquals(first.toString().replace("\r", ""), "1\n2\n");
+        Assert.assertEquals(second.toString().replace("\r", ""), "1\n");
+        Assert.assertEquals(a.get("n"), 2.0);
+        Assert.assertEquals(b.get("n"), 1.0);
+    }
+
+    @Test
+    public void testErrorsAreThrownWithTheExitCode() throws LoxException {
+        try {
+            engine.compile("print ;");
+            Assert.fail();
+        } catch (LoxException e) {
+            Assert.assertEquals(e.getExitCode(), LoxException.COMPILE_ERROR);
+            Assert.assertEquals(e.getErrors().get(0), "[line 1] Error at ';': Except expression.");
+        }
+
+        LoxContext context = context(new ByteArrayOutputStream());
+        context.define("limit", "ten");
+        try {
+            context.run(engine.compile("print limit - 1;"));
+            Assert.fail();
+        } catch (LoxException e) {
+            Assert.assertEquals(e.getExitCode(), LoxException.RUNTIME_ERROR);
+        }
+    }
+
+    @Test
+    public void testMissingSuperMethodIsAnUndefinedProperty() throws LoxException {
+        LoxContext context = context(new ByteArrayOutputStream());
+        try {
+            context.run(engine.compile("class A {}\nclass B < A { m() { super.nope(); } }\nB().m();"));
+            Assert.fail();
+        } catch (LoxException e) {
+            Assert.assertEquals(e.getExitCode(), LoxException.RUNTIME_ERROR);
+            Assert.assertEquals(e.getErrors().get(0), "undefined property 'nope'. at [line 2]");
+        }
+    }
+
+    @Test
+    public void testProgramsRunInParallel() throws Exception {
+        CompiledProgram program = engine.compile(
+                "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } var result = fib(15);");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            results.add(pool.submit(() -> {
+                LoxContext context = context(new ByteArrayOutputStream());
+                context.run(program);
+                return context.get("result");
+            }));
+        }
+        for (Future<Object> result : results) {
+            Assert.assertEquals(result.get(), 610.0);
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,48 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.engine.LoxScriptEngineFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.io.StringWriter;
+
+public class LoxScriptEngineTest {
+    private final ScriptEngine engine = new LoxScriptEngineFactory().getScriptEngine();
+
+    @Test
+    public void testCompiledScriptRunsWithFreshBindings() throws ScriptException {
+        CompiledScript rule = ((Compilable) engine).compile("var approved = amount < limit;");
+        for (int amount : new int[]{50, 500}) {
+            Bindings bindings = engine.createBindings();
+            bindings.put("amount", amount);
+            bindings.put("limit", 100);
+            rule.eval(bindings);
+            Assert.assertEquals(bindings.get("approved"), amount < 100);
+        }
+    }
+
+    @Test
+    public void testDeclarationsStayInTheEngineBindings() throws ScriptException {
+        StringWriter out = new StringWriter();
+        engine.getContext().setWriter(out);
+        engine.eval("fun twice(x) { return x * 2; }");
+        engine.put("n", 21);
+        engine.eval("print twice(n);");
+        Assert.assertEquals(out.toString().replace("\r", ""), "42\n");
+    }
+
+    @Test
+    public void testRuntimeErrorsAreScriptExceptions() {
+        try {
+            engine.eval("print nil + 1;");
+            Assert.fail();
+        } catch (ScriptException e) {
+            Assert.assertTrue(e.getMessage().contains("at [line 1]"));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.server.LoxClient;
+import org.craftinginterpreter.jlox.server.LoxServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class LoxServerTest {
+    private LoxServer server;
+    private Thread serving;
+    private int port;
+
+    public LoxServerTest() throws IOException {
+        start(new LoxServer(2));
+    }
+
+    private void start(LoxServer started) throws IOException {
+        server = started;
+        // clients can connect once the port is bound, no need to wait for serve() to start
+        port = server.bind(0);
+        serving = new Thread(() -> {
+            try {
+                started.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+    }
+
+    private void stop() throws Exception {
+        server.close();
+        serving.join(10000);
+        Assert.assertFalse(serving.isAlive());
+    }
+
+    private int run(Path script, ByteArrayOutputStream out) throws IOException {
+        return LoxClient.run(script.toString(), port, new PrintStream(out, true));
+    }
+
+    @Test
+    public void testClientGetsOutputAndExitCode() throws Exception {
+        try {
+            Path dir = Files.createTempDirectory("serve");
+            Path ok = dir.resolve("ok.lox");
+            Files.write(ok, "var n = 1; print \"a\"; print n + 2;".getBytes());
+            Path failing = dir.resolve("failing.lox");
+            Files.write(failing, "print 1; print nil + 1;".getBytes());
+            Path broken = dir.resolve("broken.lox");
+            Files.write(broken, "print ;".getBytes());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Assert.assertEquals(run(ok, out), 0);
+            Assert.assertEquals(out.toString().replace("\r", ""), "a\n3\n");
+            // the second job gets the compiled program from the cache and globals of its own
+            Assert.assertEquals(run(ok, new ByteArrayOutputStream()), 0);
+
+            out = new ByteArrayOutputStream();
+            Assert.assertEquals(run(failing, out), 70);
+            Assert.assertTrue(out.toString().startsWith("1"));
+            Assert.assertEquals(run(broken, new ByteArrayOutputStream()), 65);
+            Assert.assertEquals(run(dir.resolve("missing.lox"), new ByteArrayOutputStream()), 66);
+        } finally {
+            stop();
+        }
+    }
+
+    // the message the server answers a request of kind and length with, which must break the protocol
+    private String refused(int kind, int length) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+            request.writeInt(kind);
+            request.writeInt(length);
+            request.flush();
+
+            DataInputStream response = new DataInputStream(socket.getInputStream());
+            Assert.assertEquals(response.readByte(), 'O');
+            byte[] message = new byte[response.readInt()];
+            response.readFully(message);
+            Assert.assertEquals(response.readByte(), 'X');
+            Assert.assertEquals(response.readInt(), LoxClient.PROTOCOL_ERROR);
+            return new String(message, "UTF-8");
+        }
+    }
+
+    @Test
+    public void testRequestsBreakingTheProtocolAreRefused() throws Exception {
+        try {
+            Assert.assertTrue(refused(1, Integer.MAX_VALUE).startsWith("Requests are limited to"));
+            Assert.assertTrue(refused(1, -1).startsWith("Requests are limited to"));
+            Assert.assertEquals(refused(7, 0).replace("\r", ""), "Unknown request kind 7.\n");
+        } finally {
+            stop();
+        }
+    }
+
+    private Path script(String source) throws IOException {
+        Path script = Files.createTempFile("serve", ".lox");
+        Files.write(script, source.getBytes());
+        return script;
+    }
+
+    @Test
+    public void testClientLeavingStopsTheJob() throws Exception {
+        stop();
+        // one worker and no time limit: the next job only runs if leaving stopped the first one
+        start(new LoxServer(1, 0));
+        try {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                byte[] source = "var s = \"output\"; while (true) print s;".getBytes("UTF-8");
+                DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+                request.writeInt(1);
+                request.writeInt(source.length);
+                request.write(source);
+                request.flush();
+
+                DataInputStream response = new DataInputStream(socket.getInputStream());
+                Assert.assertEquals(response.readByte(), 'O');
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Assert.assertEquals(run(script("print \"next\";"), out), 0);
+            Assert.assertEquals(out.toString().replace("\r", ""), "next\n");
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void testJobsLongerThanTheTimeoutAreStopped() throws Exception {
+        stop();
+        start(new LoxServer(1, 500));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Assert.assertEquals(run(script("print \"start\"; while (true) {}"), out), 70);
+            Assert.assertEquals(out.toString().replace("\r", ""), "start\nThe job ran longer than 500 ms.\n");
+            out = new ByteArrayOutputStream();
+            Assert.assertEquals(run(script("fun loop() { for (var i = 0; i < 1; i = i + 0) {} } loop();"), out), 70);
+            Assert.assertEquals(out.toString().replace("\r", ""), "The job ran longer than 500 ms.\n");
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void testStoppedServerRefusesClients() throws Exception {
+        stop();
+        Path script = Files.createTempFile("serve", ".lox");
+        Assert.assertEquals(run(script, new ByteArrayOutputStream()), LoxClient.UNAVAILABLE);
+    }
+
+    @Test
+    public void testConnectionClosedBeforeTheExitCode() throws Exception {
+        stop();
+        // a server that reads the request and hangs up
+        try (ServerSocket hangingUp = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread accepting = new Thread(() -> {
+                try (Socket socket = hangingUp.accept()) {
+                    DataInputStream request = new DataInputStream(socket.getInputStream());
+                    request.readInt();
+                    request.readFully(new byte[request.readInt()]);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            accepting.start();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Path script = Files.createTempFile("serve", ".lox");
+            Assert.assertEquals(LoxClient.run(script.toString(), hangingUp.getLocalPort(), new PrintStream(out, true)),
+                    LoxClient.PROTOCOL_ERROR);
+            Assert.assertTrue(out.toString().startsWith("jlox serve closed the connection"));
+            accepting.join();
+        }
+    }
+}
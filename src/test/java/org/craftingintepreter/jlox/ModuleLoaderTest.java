@@ -0,0 +1,95 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.engine.LoxContext;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ModuleLoaderTest {
+    private final LoxEngine engine = new LoxEngine();
+    private final Path dir;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final LoxContext context;
+
+    public ModuleLoaderTest() throws IOException {
+        dir = Files.createTempDirectory("modules");
+        context = engine.newContext(new PrintStream(out, true), dir);
+    }
+
+    private void module(String name, String source) throws IOException {
+        Files.write(dir.resolve(name), source.getBytes());
+    }
+
+    private String output() {
+        String printed = out.toString().replace("\r", "");
+        out.reset();
+        return printed;
+    }
+
+    // the first error of running source, which must fail with exitCode
+    private String error(String source, int exitCode) {
+        try {
+            context.run(engine.compile(source));
+            Assert.fail(source);
+            return null;
+        } catch (LoxException e) {
+            Assert.assertEquals(e.getExitCode(), exitCode);
+            return e.getErrors().get(0);
+        }
+    }
+
+    @Test
+    public void testModulesRunOnceAfterTheirImports() throws Exception {
+        module("a.lox", "import \"c.lox\"; print \"a\";");
+        module("b.lox", "import \"c.lox\"; import \"a.lox\"; print \"b\";");
+        module("c.lox", "print \"c\"; var shared = \"c global\";");
+
+        context.run(engine.compile("import \"a.lox\"; import \"b.lox\"; import \"a.lox\"; print shared;"));
+        Assert.assertEquals(output(), "c\na\nb\nc global\n");
+
+        context.run(engine.compile("import \"b.lox\"; print \"again\";"));
+        Assert.assertEquals(output(), "again\n");
+    }
+
+    @Test
+    public void testImportErrors() throws Exception {
+        module("x.lox", "import \"y.lox\";");
+        module("y.lox", "import \"x.lox\";");
+        Assert.assertTrue(error("import \"x.lox\";", LoxException.COMPILE_ERROR).contains("Import cycle"));
+        Assert.assertTrue(error("import \"missing.lox\";", LoxException.COMPILE_ERROR).contains("Can't read module"));
+        Assert.assertTrue(error("{ import \"x.lox\"; }", LoxException.COMPILE_ERROR)
+                .contains("Can only import at top level."));
+        Assert.assertEquals(output(), "");
+
+        // errors in an imported file say which one
+        module("broken.lox", "var ok = 1;\nprint 1 +;");
+        Assert.assertEquals(error("import \"broken.lox\";", LoxException.COMPILE_ERROR),
+                "[line 2] Error in '" + dir.resolve("broken.lox") + "' at ';': Except expression.");
+    }
+
+    @Test
+    public void testModulesThatDidntRunAreRunByTheNextImport() throws Exception {
+        module("good.lox", "var value = \"good\"; print \"good ran\";");
+        module("broken.lox", "print 1 +;");
+        module("boom.lox", "print \"boom\"; nil();");
+
+        // a module that failed to compile keeps the others from running
+        error("import \"good.lox\"; import \"broken.lox\";", LoxException.COMPILE_ERROR);
+        Assert.assertEquals(output(), "");
+        context.run(engine.compile("import \"good.lox\"; print value;"));
+        Assert.assertEquals(output(), "good ran\ngood\n");
+
+        module("later.lox", "var late = \"later\";");
+        error("import \"boom.lox\"; import \"later.lox\";", LoxException.RUNTIME_ERROR);
+        Assert.assertEquals(output(), "boom\n");
+        context.run(engine.compile("import \"later.lox\"; print late;"));
+        Assert.assertEquals(output(), "later\n");
+    }
+}
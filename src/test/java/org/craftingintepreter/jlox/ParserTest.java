@@ -0,0 +1,62 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.scanner.TokenBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParserTest {
+    // the parser recovers from these and leaves the broken statement out of the body
+    private static final String[] NESTED_ERRORS = {"fun bad() { print 1 +; }", "{ print 1 +; }"};
+
+    @Test
+    public void testSyntaxErrorsInBodiesFailTheProgram() {
+        for (String source : NESTED_ERRORS) {
+            Parser parser = new Parser(new Scanner(source));
+            Assert.assertNotNull(source, parser.parse());
+            Assert.assertTrue(source, parser.hadError());
+            Assert.assertNull(source, CompiledProgram.compile(source));
+            try {
+                new LoxEngine().compile(source);
+                Assert.fail(source);
+            } catch (LoxException e) {
+                Assert.assertEquals(e.getExitCode(), LoxException.COMPILE_ERROR);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingDiscardsConsumedTokens() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            source.append("var a").append(i).append(" = ").append(i).append(" + 1;\n");
+        }
+        Scanner scanner = new Scanner(source.toString());
+        TokenBuffer tokens = scanner.tokenBuffer();
+        Parser parser = new Parser(scanner);
+        int declarations = 0;
+        while (parser.hasNext()) {
+            Stmt.Var var = (Stmt.Var) parser.next();
+            Assert.assertEquals(var.name, "a" + declarations);
+            declarations++;
+            // the lookbehind token, the lookahead and whatever the scanner ran ahead to find it
+            Assert.assertTrue(tokens.held() <= 3);
+        }
+        Assert.assertEquals(declarations, 1000);
+        Assert.assertEquals(tokens.size(), 7001);
+    }
+
+    @Test
+    public void testStreamedDeclarationsWithNestedErrorsAreNull() {
+        Parser parser = new Parser(new Scanner("var a = 1; " + NESTED_ERRORS[0] + " var b = 2;"));
+        Assert.assertNotNull(parser.next());
+        Assert.assertNull(parser.next());
+        Assert.assertNotNull(parser.next());
+        Assert.assertFalse(parser.hasNext());
+    }
+}
@@ -0,0 +1,44 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.cache.CompiledProgram;
+import org.craftinginterpreter.jlox.cache.ProgramCache;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ProgramCacheTest {
+    private static final String SOURCE =
+            "fun count(n) { var i = 0; while (i < n) { i = i + 1; } return i; }\n" +
+            "print count(3) + \"x\";\n";
+
+    @Test
+    public void testCompileIsCachedUntilSourceChanges() throws IOException {
+        Path dir = Files.createTempDirectory("loxc");
+        Path script = dir.resolve("count.lox");
+        byte[] source = SOURCE.getBytes();
+        Files.write(script, source);
+
+        CompiledProgram compiled = ProgramCache.compile(script, source);
+        Assert.assertTrue(Files.exists(ProgramCache.cachePath(script)));
+
+        CompiledProgram cached = ProgramCache.load(script, source);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(cached.getStatements().size(), 2);
+        Stmt.Function count = (Stmt.Function) cached.getStatements().get(0);
+        Stmt.Function original = (Stmt.Function) compiled.getStatements().get(0);
+        Assert.assertEquals(count.name, "count");
+        Assert.assertEquals(count.line, 1);
+        Assert.assertEquals(count.params[0], "n");
+        Assert.assertEquals(count.storage, Resolver.GLOBAL);
+        Assert.assertEquals(count.paramStorages[0], Resolver.FRAME);
+        Assert.assertEquals(count.frameSize, original.frameSize);
+        Assert.assertArrayEquals(count.captureSlots, original.captureSlots);
+
+        Assert.assertNull(ProgramCache.load(script, "print 1;".getBytes()));
+    }
+}
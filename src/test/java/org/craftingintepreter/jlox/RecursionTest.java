@@ -0,0 +1,73 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.engine.LoxContext;
+import org.craftinginterpreter.jlox.engine.LoxEngine;
+import org.craftinginterpreter.jlox.engine.LoxException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+
+// calls nested deeper than a thread's stack allows, which run on stack segments (see Interpreter.onStackSegment)
+public class RecursionTest {
+    private static final String COUNT =
+            "fun count(n) { if (n == 0) return 0; return count(n - 1) + 1; }\n";
+
+    private final LoxEngine engine = new LoxEngine();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final LoxContext context = engine.newContext(new PrintStream(out, true), Paths.get("."));
+
+    private String run(String source) throws LoxException {
+        context.run(engine.compile(source));
+        String printed = out.toString().replace("\r", "");
+        out.reset();
+        return printed;
+    }
+
+    private String error(String source) {
+        try {
+            run(source);
+            Assert.fail(source);
+            return null;
+        } catch (LoxException e) {
+            Assert.assertEquals(e.getExitCode(), LoxException.RUNTIME_ERROR);
+            return e.getErrors().get(0);
+        }
+    }
+
+    @Test
+    public void testReturnsCrossSegments() throws LoxException {
+        Assert.assertEquals(run(COUNT + "print count(70); print count(25000); print count(99999);"),
+                "70\n25000\n99999\n");
+        // the same context keeps working after going deep
+        Assert.assertEquals(run("print count(3);"), "3\n");
+    }
+
+    @Test
+    public void testCallsDeeperThanTheLimitFail() throws LoxException {
+        // count(n) nests n + 1 calls, -Djlox.maxdepth is 100000 by default
+        Assert.assertEquals(error(COUNT + "count(100000);"), "Stack overflow. at [line 1]");
+        Assert.assertEquals(run("print count(100);"), "100\n");
+    }
+
+    @Test
+    public void testErrorsCrossSegments() throws LoxException {
+        Assert.assertTrue(error("fun down(n) { if (n == 0) nil(); down(n - 1); }\ndown(30000);")
+                .contains("Can only call functions and classes"));
+        Assert.assertEquals(run("print \"ok\";"), "ok\n");
+    }
+
+    @Test
+    public void testLazyBodiesReportToTheContext() {
+        LoxEngine lazy = new LoxEngine(true);
+        LoxContext context = lazy.newContext(new PrintStream(out, true), Paths.get("."));
+        try {
+            context.run(lazy.compile("fun bad() { print 1 +; }\nbad();"));
+            Assert.fail();
+        } catch (LoxException e) {
+            Assert.assertTrue(e.getErrors().get(0).contains("Except expression."));
+        }
+    }
+}
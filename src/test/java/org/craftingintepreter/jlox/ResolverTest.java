@@ -0,0 +1,120 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ResolverTest {
+    private static List<Stmt> resolve(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        Resolver resolver = new Resolver();
+        resolver.resolve(statements);
+        Assert.assertFalse(resolver.hadError());
+        return statements;
+    }
+
+    @Test
+    public void testUncapturedLocalsLiveInTheFrame() {
+        Stmt.Function f = (Stmt.Function) resolve("fun f(n) { var a = n; { var b = a; } }").get(0);
+        Assert.assertEquals(f.paramStorages[0], Resolver.FRAME);
+        Assert.assertEquals(((Stmt.Var) f.body[0]).storage, Resolver.FRAME);
+        Assert.assertEquals(f.captureSlots.length, 0);
+    }
+
+    @Test
+    public void testClosuresCaptureOnlyTheirFreeVariables() {
+        Stmt.Function f = (Stmt.Function) resolve(
+                "fun f() { var a = 1; var b = 2; var c = 3; fun g() { return b; } }").get(0);
+        Assert.assertEquals(((Stmt.Var) f.body[0]).storage, Resolver.FRAME);
+        Stmt.Var b = (Stmt.Var) f.body[1];
+        Assert.assertEquals(b.storage, Resolver.CELL);
+        Stmt.Function g = (Stmt.Function) f.body[3];
+        Assert.assertArrayEquals(g.captureSlots, new int[] {b.slot});
+        Assert.assertTrue(g.capturesLocal[0]);
+        Assert.assertEquals(((Expr.Var) ((Stmt.Return) g.body[0]).value).storage, Resolver.UPVALUE);
+    }
+
+    @Test
+    public void testNestedClosuresCaptureThroughTheirEnclosingClosure() {
+        Stmt.Function f = (Stmt.Function) resolve(
+                "fun f() { var a = 1; fun g() { fun h() { return a; } } }").get(0);
+        Stmt.Function g = (Stmt.Function) f.body[1];
+        Stmt.Function h = (Stmt.Function) g.body[0];
+        Assert.assertArrayEquals(g.captureSlots, new int[] {((Stmt.Var) f.body[0]).slot});
+        Assert.assertTrue(g.capturesLocal[0]);
+        Assert.assertArrayEquals(h.captureSlots, new int[] {0});
+        Assert.assertFalse(h.capturesLocal[0]);
+    }
+
+    @Test
+    public void testCountedLoopsAreMarkedUnlessTheBodyAssignsTheCounter() {
+        List<Stmt> statements = resolve(
+                "for (var i = 0; i < 10; i = i + 1) print i;\n" +
+                "for (var i = 0; i < 10; i = i + 1) i = 9;\n");
+        Assert.assertTrue(((Stmt.While) ((Stmt.Block) statements.get(0)).statements[1]).counted);
+        Assert.assertFalse(((Stmt.While) ((Stmt.Block) statements.get(1)).statements[1]).counted);
+    }
+
+    @Test
+    public void testInitializerFieldsAreCollected() {
+        Stmt.Class point = (Stmt.Class) resolve(
+                "class Point { init(x, y) { this.x = x; this.y = y; this.x = 0; } }").get(0);
+        Stmt.Function init = point.methods[0];
+        Assert.assertArrayEquals(init.fields, new String[] {"x", "y"});
+        Assert.assertEquals(init.thisStorage, Resolver.FRAME);
+    }
+
+    @Test
+    public void testSuperMethodsAreNumberedPerMethod() {
+        Stmt.Class b = (Stmt.Class) resolve("class A { m() {} n() {} }\n" +
+                "class B < A { m() { super.n(); fun f() { super.m(); } super.n(); } }\n").get(1);
+        Stmt.Function m = b.methods[0];
+        Assert.assertArrayEquals(m.superMethods, new String[] {"n", "m"});
+        Assert.assertEquals(((Expr.Super) ((Expr.Call) ((Stmt.Expression) m.body[2]).expression).callee).index, 0);
+        Stmt.Function f = (Stmt.Function) m.body[1];
+        Assert.assertNull(f.superMethods);
+        Assert.assertEquals(((Expr.Super) ((Expr.Call) ((Stmt.Expression) f.body[0]).expression).callee).index, 1);
+    }
+
+    @Test
+    public void testLiteralConstantsAreInlined() {
+        List<Stmt> statements = resolve("const N = -2; const T = clock(); fun f() { return N + T; }");
+        Expr.Binary sum = (Expr.Binary) ((Stmt.Return) ((Stmt.Function) statements.get(2)).body[0]).value;
+        Assert.assertEquals(((Expr.Var) sum.left).storage, Resolver.CONSTANT);
+        Assert.assertEquals(((Expr.Var) sum.left).constant, -2.0);
+        Assert.assertEquals(((Expr.Var) sum.right).storage, Resolver.GLOBAL);
+    }
+
+    @Test
+    public void testConstantsCannotBeAssigned() {
+        for (String source : new String[] {"const A = 1; A = 2;", "const A = 1; var A = 2;", "{ const B = 1; B = 2; }"}) {
+            List<Stmt> statements = new Parser(new Scanner(source)).parse();
+            Resolver resolver = new Resolver();
+            resolver.resolve(statements);
+            Assert.assertTrue(source, resolver.hadError());
+        }
+    }
+
+    @Test
+    public void testLazyBodiesAreResolvedOnDemand() {
+        Scanner scanner = new Scanner("class A { m() { return 1; } }\n" +
+                "class B < A { init() { this.x = 1; } m() { var a = 2; return super.m() + a; } }\n");
+        List<Stmt> statements = new Parser(scanner.scanTokenBuffer(), true).parse();
+        new Resolver().resolve(statements);
+
+        Stmt.Class b = (Stmt.Class) statements.get(1);
+        Assert.assertNull(b.methods[0].lazy);
+        Stmt.Function m = b.methods[1];
+        Assert.assertEquals(m.body.length, 0);
+        Stmt.Function compiled = Resolver.compile(m);
+        Assert.assertEquals(compiled.body.length, 2);
+        Assert.assertEquals(compiled.thisStorage, Resolver.FRAME);
+        Assert.assertSame(Resolver.compile(m), compiled);
+    }
+}
@@ -0,0 +1,53 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.optimizer.ScalarReplacement;
+import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class ScalarReplacementTest {
+    private static final String POINT = "class Point { init(x, y) { this.x = x; this.y = y; } }\n";
+
+    // the function declared after Point
+    private static Stmt.Function replace(String source) {
+        List<Stmt> statements = new Parser(new Scanner(POINT + source)).parse();
+        new Resolver().resolve(statements);
+        ScalarReplacement.replace(statements);
+        return (Stmt.Function) statements.get(1);
+    }
+
+    @Test
+    public void testFieldsOfLocalInstancesGetFrameSlots() {
+        Stmt.Function f = replace("fun f() { var p = Point(1, 2); p.x = p.y; return p.x; }");
+        Stmt.Scalar scalar = (Stmt.Scalar) f.body[0];
+        Assert.assertEquals(f.scalarSlots, 2);
+        Assert.assertEquals(f.frameSize, 3);
+        Assert.assertArrayEquals(scalar.fieldSlots, new int[]{1, 2});
+        Assert.assertArrayEquals(scalar.arguments, new int[]{0, 1});
+
+        Expr.Set set = (Expr.Set) ((Stmt.Expression) f.body[1]).expression;
+        Assert.assertEquals(set.fieldSlot, 1);
+        Assert.assertEquals(((Expr.Get) set.value).fieldSlot, 2);
+
+        // replacing twice changes nothing
+        ScalarReplacement.replace(Collections.singletonList(f));
+        Assert.assertEquals(f.frameSize, 3);
+    }
+
+    @Test
+    public void testEscapingInstancesAreKept() {
+        Stmt.Function f = replace("fun f() { var p = Point(1, 2); print p; var q = Point(1, 2); q.z = 1;"
+                + " var r = Point(1, 2); fun g() { return r.x; } }");
+        Assert.assertEquals(f.body[0].kind, Stmt.VAR);
+        Assert.assertEquals(f.body[2].kind, Stmt.VAR);
+        Assert.assertEquals(f.body[4].kind, Stmt.VAR);
+        Assert.assertEquals(f.scalarSlots, 0);
+    }
+}
@@ -1,6 +1,7 @@
 package org.craftingintepreter.jlox;
 
 import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.scanner.TokenBuffer;
 import org.craftinginterpreter.jlox.scanner.TokenType;
 import org.junit.Assert;
 import org.junit.Test;
@@ -17,4 +18,19 @@ public class ScannerTest {
         Assert.assertEquals(scanner.scanTokens().get(8).getLiteral(), "ssss");
         Assert.assertEquals(scanner.scanTokens().get(10).getTokenType(), TokenType.WHILE);
     }
+
+    @Test
+    public void testScanTokenBuffer() throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get("src/test/resources/source1.lox")));
+        TokenBuffer tokens = new Scanner(source).scanTokenBuffer();
+        Assert.assertEquals(tokens.size(), 12);
+        Assert.assertEquals(tokens.type(8), TokenType.STRING);
+        Assert.assertEquals(tokens.lexeme(8), "\"ssss\"");
+        Assert.assertEquals(tokens.literal(8), "ssss");
+        Assert.assertEquals(tokens.literal(4), 2.0);
+        Assert.assertNull(tokens.literal(5));
+        Assert.assertEquals(tokens.line(8), 2);
+        Assert.assertEquals(tokens.type(11), TokenType.EOF);
+        Assert.assertEquals(tokens.token(10).getLexeme(), "while");
+    }
 }
@@ -0,0 +1,58 @@
+package org.craftingintepreter.jlox;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// jlox --stream, in a JVM of its own since the command line exits
+public class StreamingTest {
+    private static String[] run(String source, String... flags) throws IOException, InterruptedException {
+        Path script = Files.createTempFile("stream", ".lox");
+        Files.write(script, source.getBytes());
+        String[] command = new String[flags.length + 5];
+        command[0] = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = "org.craftinginterpreter.jlox.Lox";
+        System.arraycopy(flags, 0, command, 4, flags.length);
+        command[command.length - 1] = script.toString();
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                out.write(buffer, 0, n);
+            }
+        }
+        int exit = process.waitFor();
+        Files.delete(script);
+        return new String[]{out.toString().replace("\r", ""), String.valueOf(exit)};
+    }
+
+    @Test
+    public void testDeclarationsRunInOrder() throws Exception {
+        String[] result = run("var a = 1;\nfun f() { print a; a = a + 1; }\nf();\nprint \"x\";\nf();\n", "--stream");
+        Assert.assertEquals(result[0], "1\nx\n2\n");
+        Assert.assertEquals(result[1], "0");
+    }
+
+    @Test
+    public void testSyntaxErrorStopsAfterTheDeclarationsBeforeIt() throws Exception {
+        String source = "print 1;\nprint 2;\nprint 3 +;\nprint 4;\n";
+        String[] streamed = run(source, "--stream");
+        Assert.assertEquals(streamed[0], "1\n2\n[line 3] Error at ';': Except expression.\n");
+        Assert.assertEquals(streamed[1], "65");
+
+        // without --stream nothing runs
+        String[] batch = run(source);
+        Assert.assertEquals(batch[0], "[line 3] Error at ';': Except expression.\n");
+        Assert.assertEquals(batch[1], "65");
+    }
+}
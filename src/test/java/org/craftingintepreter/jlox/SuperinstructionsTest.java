@@ -0,0 +1,41 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.optimizer.Superinstructions;
+import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SuperinstructionsTest {
+    private static List<Stmt> fuse(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        new Resolver().resolve(statements);
+        Superinstructions.fuse(statements);
+        return statements;
+    }
+
+    @Test
+    public void testCommonShapesAreFused() {
+        Stmt.Function f = (Stmt.Function) fuse(
+                "fun f(x) { x = x + 1; x = x + f(x); if (x < 3) return f(x); x = 2 * x; }").get(0);
+        Assert.assertEquals(f.body[0].kind, Stmt.INCREMENT);
+        Assert.assertEquals(f.body[1].kind, Stmt.ADDASSIGN);
+        Stmt.CompareIf compareIf = (Stmt.CompareIf) f.body[2];
+        Assert.assertEquals(compareIf.thenBranch.kind, Stmt.RETURNCALL);
+        Assert.assertEquals(f.body[3].kind, Stmt.EXPRESSION);
+    }
+
+    @Test
+    public void testCountedLoopIncrementsAreLeftAlone() {
+        Stmt.Block loop = (Stmt.Block) fuse("for (var i = 0; i < 10; i = i + 1) { var a = 1; a = a + 1; }").get(0);
+        Stmt.While body = (Stmt.While) loop.statements[1];
+        Assert.assertTrue(body.counted);
+        Stmt[] statements = ((Stmt.Block) body.body).statements;
+        Assert.assertEquals(((Stmt.Block) statements[0]).statements[1].kind, Stmt.INCREMENT);
+        Assert.assertEquals(statements[1].kind, Stmt.EXPRESSION);
+    }
+}
@@ -0,0 +1,39 @@
+package org.craftingintepreter.jlox;
+
+import org.craftinginterpreter.jlox.ast.Expr;
+import org.craftinginterpreter.jlox.ast.Parser;
+import org.craftinginterpreter.jlox.ast.Stmt;
+import org.craftinginterpreter.jlox.optimizer.TypeInference;
+import org.craftinginterpreter.jlox.scanner.Scanner;
+import org.craftinginterpreter.jlox.semanticanalysis.Resolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TypeInferenceTest {
+    private static Stmt.Function infer(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        new Resolver().resolve(statements);
+        TypeInference.infer(statements);
+        return (Stmt.Function) statements.get(0);
+    }
+
+    private static Expr.Binary initializer(Stmt stmt) {
+        return (Expr.Binary) ((Stmt.Var) stmt).initializer;
+    }
+
+    @Test
+    public void testLoopCountersAreNumbers() {
+        Stmt.Function f = infer("fun f() { var i = 0; while (i < 10) { i = i + 1; } var j = i * 2; }");
+        Assert.assertTrue(((Expr.Binary) ((Stmt.While) f.body[1]).condition).numeric);
+        Assert.assertTrue(initializer(f.body[2]).numeric);
+    }
+
+    @Test
+    public void testParametersAndReassignedLocalsAreUnknown() {
+        Stmt.Function f = infer("fun f(n) { var a = n + 1; var b = 1; var c = b - 1; b = \"s\"; }");
+        Assert.assertFalse(initializer(f.body[0]).numeric);
+        Assert.assertFalse(initializer(f.body[2]).numeric);
+    }
+}